@@ -17,12 +17,13 @@
 package com.android.launcher2;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 
@@ -43,6 +44,13 @@ class AllAppsList {
 	/** 上一次notify()之后改变的所有程序 */
 	public ArrayList<ApplicationInfo> modified = new ArrayList<ApplicationInfo>();
 
+	/** ComponentName到data中ApplicationInfo的索引 */
+	private final HashMap<ComponentName, ApplicationInfo> mComponentIndex = new HashMap<ComponentName, ApplicationInfo>(
+			DEFAULT_APPLICATIONS_NUMBER);
+	/** 包名到data中属于该包的ApplicationInfo的索引 */
+	private final HashMap<String, ArrayList<ApplicationInfo>> mPackageIndex = new HashMap<String, ArrayList<ApplicationInfo>>(
+			DEFAULT_APPLICATIONS_NUMBER);
+
 	private IconCache mIconCache;
 
 	/**
@@ -56,11 +64,19 @@ class AllAppsList {
 	 * 向列表中添加app，并在notify()调用时把它放到队列中。 如果列表中已经存在，那么不管他
 	 */
 	public void add(ApplicationInfo info) {
-		if (findActivity(data, info.componentName)) {
+		if (mComponentIndex.containsKey(info.componentName)) {
 			return;
 		}
 		data.add(info);
 		added.add(info);
+		mComponentIndex.put(info.componentName, info);
+		final String packageName = info.componentName.getPackageName();
+		ArrayList<ApplicationInfo> packageApps = mPackageIndex.get(packageName);
+		if (packageApps == null) {
+			packageApps = new ArrayList<ApplicationInfo>(1);
+			mPackageIndex.put(packageName, packageApps);
+		}
+		packageApps.add(info);
 	}
 
 	/**
@@ -68,6 +84,8 @@ class AllAppsList {
 	 */
 	public void clear() {
 		data.clear();
+		mComponentIndex.clear();
+		mPackageIndex.clear();
 		// TODO: do we clear these too?
 		added.clear();
 		removed.clear();
@@ -102,19 +120,26 @@ class AllAppsList {
 
 	/**
 	 * Remove the apps for the given apk identified by packageName. 移除指定名称的app
+	 *
+	 * @param permanent false if the package only became unavailable (external
+	 *            storage unmounted), its icons on disk are kept then
 	 */
-	public void removePackage(String packageName) {
-		final List<ApplicationInfo> data = this.data;
-		for (int i = data.size() - 1; i >= 0; i--) {
-			ApplicationInfo info = data.get(i);
-			final ComponentName component = info.intent.getComponent();
-			if (packageName.equals(component.getPackageName())) {
-				removed.add(info);
-				data.remove(i);
+	public void removePackage(String packageName, boolean permanent) {
+		final ArrayList<ApplicationInfo> packageApps = mPackageIndex
+				.remove(packageName);
+		if (packageApps != null) {
+			for (ApplicationInfo info : packageApps) {
+				mComponentIndex.remove(info.componentName);
 			}
+			removed.addAll(packageApps);
+			removeFromData(packageApps);
+		}
+		// Only drop the icons that belong to this package.
+		if (permanent) {
+			mIconCache.removePackage(packageName);
+		} else {
+			mIconCache.evictPackage(packageName);
 		}
-		// This is more aggressive than it needs to be.
-		mIconCache.flush();
 	}
 
 	/**
@@ -123,21 +148,31 @@ class AllAppsList {
 	public void updatePackage(Context context, String packageName) {
 		final List<ResolveInfo> matches = findActivitiesForPackage(context,
 				packageName);
+		final ArrayList<ApplicationInfo> packageApps = mPackageIndex
+				.get(packageName);
 		if (matches.size() > 0) {
 			// Find disabled/removed activities and remove them from data and
 			// add them
 			// to the removed list.
-			for (int i = data.size() - 1; i >= 0; i--) {
-				final ApplicationInfo applicationInfo = data.get(i);
-				final ComponentName component = applicationInfo.intent
-						.getComponent();
-				if (packageName.equals(component.getPackageName())) {
-					if (!findActivity(matches, component)) {
+			if (packageApps != null) {
+				final HashSet<String> classNames = new HashSet<String>(
+						matches.size());
+				for (ResolveInfo info : matches) {
+					classNames.add(info.activityInfo.name);
+				}
+				final ArrayList<ApplicationInfo> disabled = new ArrayList<ApplicationInfo>();
+				for (int i = packageApps.size() - 1; i >= 0; i--) {
+					final ApplicationInfo applicationInfo = packageApps.get(i);
+					final ComponentName component = applicationInfo.componentName;
+					if (!classNames.contains(component.getClassName())) {
 						removed.add(applicationInfo);
 						mIconCache.remove(component);
-						data.remove(i);
+						mComponentIndex.remove(component);
+						packageApps.remove(i);
+						disabled.add(applicationInfo);
 					}
 				}
+				removeFromData(disabled);
 			}
 
 			// Find enabled activities and add them to the adapter
@@ -157,19 +192,43 @@ class AllAppsList {
 					modified.add(applicationInfo);
 				}
 			}
-		} else {
+		} else if (packageApps != null) {
 			// Remove all data for this package.
-			for (int i = data.size() - 1; i >= 0; i--) {
-				final ApplicationInfo applicationInfo = data.get(i);
-				final ComponentName component = applicationInfo.intent
-						.getComponent();
-				if (packageName.equals(component.getPackageName())) {
-					removed.add(applicationInfo);
-					mIconCache.remove(component);
-					data.remove(i);
-				}
+			mPackageIndex.remove(packageName);
+			for (ApplicationInfo applicationInfo : packageApps) {
+				removed.add(applicationInfo);
+				mIconCache.remove(applicationInfo.componentName);
+				mComponentIndex.remove(applicationInfo.componentName);
+			}
+			removeFromData(packageApps);
+		}
+	}
+
+	/**
+	 * 从data中一次性删除指定的app，保持其余app的顺序
+	 */
+	private void removeFromData(List<ApplicationInfo> apps) {
+		if (apps.isEmpty()) {
+			return;
+		}
+		final ArrayList<ApplicationInfo> data = this.data;
+		if (apps.size() == 1) {
+			data.remove(apps.get(0));
+			return;
+		}
+		final HashSet<ApplicationInfo> toRemove = new HashSet<ApplicationInfo>(
+				apps);
+		final int N = data.size();
+		int kept = 0;
+		for (int i = 0; i < N; i++) {
+			final ApplicationInfo info = data.get(i);
+			if (!toRemove.contains(info)) {
+				data.set(kept++, info);
 			}
 		}
+		for (int i = N - 1; i >= kept; i--) {
+			data.remove(i);
+		}
 	}
 
 	/**
@@ -188,48 +247,11 @@ class AllAppsList {
 		return apps != null ? apps : new ArrayList<ResolveInfo>();
 	}
 
-	/**
-	 * 返回ResolveInfo列表中是否有这个app
-	 */
-	private static boolean findActivity(List<ResolveInfo> apps,
-			ComponentName component) {
-		final String className = component.getClassName();
-		for (ResolveInfo info : apps) {
-			final ActivityInfo activityInfo = info.activityInfo;
-			if (activityInfo.name.equals(className)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * 返回ApplicationInfo列表中是否有这个app
-	 */
-	private static boolean findActivity(ArrayList<ApplicationInfo> apps,
-			ComponentName component) {
-		final int N = apps.size();
-		for (int i = 0; i < N; i++) {
-			final ApplicationInfo info = apps.get(i);
-			if (info.componentName.equals(component)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	/**
 	 * 找到符合指定的包名和类名的ApplicationInfo。
 	 */
 	private ApplicationInfo findApplicationInfoLocked(String packageName,
 			String className) {
-		for (ApplicationInfo info : data) {
-			final ComponentName component = info.intent.getComponent();
-			if (packageName.equals(component.getPackageName())
-					&& className.equals(component.getClassName())) {
-				return info;
-			}
-		}
-		return null;
+		return mComponentIndex.get(new ComponentName(packageName, className));
 	}
 }
@@ -24,6 +24,7 @@ import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.util.Log;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -50,6 +51,11 @@ class ApplicationInfo extends ItemInfo {
 
 	ComponentName componentName;
 
+	/**
+	 * 标题的CollationKey，解析标题时生成，排序时直接比较它
+	 */
+	CollationKey titleKey;
+
 	static final int DOWNLOADED_FLAG = 1;
 	static final int UPDATED_SYSTEM_APP_FLAG = 2;
 
@@ -94,6 +100,7 @@ class ApplicationInfo extends ItemInfo {
 		super(info);
 		componentName = info.componentName;
 		title = info.title.toString();
+		titleKey = info.titleKey;
 		intent = new Intent(info.intent);
 		flags = info.flags;
 		firstInstallTime = info.firstInstallTime;
@@ -124,6 +131,16 @@ class ApplicationInfo extends ItemInfo {
 		itemType = LauncherSettings.BaseLauncherColumns.ITEM_TYPE_APPLICATION;
 	}
 
+	/**
+	 * 返回标题的CollationKey，没有的话现在生成
+	 */
+	CollationKey getTitleKey() {
+		if (titleKey == null) {
+			titleKey = LauncherModel.getCollationKey(title);
+		}
+		return titleKey;
+	}
+
 	@Override
 	public String toString() {
 		return "ApplicationInfo(title=" + title.toString() + ")";
@@ -18,12 +18,14 @@ package com.android.launcher2;
 
 import android.animation.AnimatorSet;
 import android.animation.ValueAnimator;
+import android.app.ActivityManager;
 import android.appwidget.AppWidgetHostView;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Configuration;
@@ -31,23 +33,25 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.Shader;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Process;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -62,6 +66,8 @@ import android.widget.Toast;
 import com.android.launcher.R;
 import com.android.launcher2.DropTarget.DragObject;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -115,11 +121,7 @@ class AsyncTaskPageData {
             sourceImages.clear();
         }
         if (generatedImages != null) {
-            if (cancelled) {
-                for (Bitmap b : generatedImages) {
-                    b.recycle();
-                }
-            }
+            // Generated previews are shared through the PreviewBitmapCache, never recycle them
             generatedImages.clear();
         }
     }
@@ -134,25 +136,38 @@ class AsyncTaskPageData {
 }
 
 /**
- * A generic template for an async task used in AppsCustomize.
+ * A generic template for an async task used in AppsCustomize. It runs on a
+ * {@link PreviewLoadExecutor}, the results are delivered on the UI thread
+ * unless the task was cancelled.
  */
-class AppsCustomizeAsyncTask extends AsyncTask<AsyncTaskPageData, Void, AsyncTaskPageData> {
-    AppsCustomizeAsyncTask(int p, AsyncTaskPageData.Type ty) {
+class AppsCustomizeAsyncTask implements Runnable {
+    private static final Handler sUiHandler = new Handler(Looper.getMainLooper());
+
+    AppsCustomizeAsyncTask(int p, AsyncTaskPageData.Type ty, AsyncTaskPageData d) {
         page = p;
         threadPriority = Process.THREAD_PRIORITY_DEFAULT;
         dataType = ty;
+        data = d;
     }
-    @Override
-    protected AsyncTaskPageData doInBackground(AsyncTaskPageData... params) {
-        if (params.length != 1) return null;
+
+    public void run() {
+        if (cancelled) return;
         // Load each of the widget previews in the background
-        params[0].doInBackgroundCallback.run(this, params[0]);
-        return params[0];
+        data.doInBackgroundCallback.run(this, data);
+        if (cancelled) return;
+        sUiHandler.post(new Runnable() {
+            public void run() {
+                // All the widget previews are loaded, so we can just callback to inflate the page
+                data.postExecuteCallback.run(AppsCustomizeAsyncTask.this, data);
+            }
+        });
     }
-    @Override
-    protected void onPostExecute(AsyncTaskPageData result) {
-        // All the widget previews are loaded, so we can just callback to inflate the page
-        result.postExecuteCallback.run(this, result);
+
+    void cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+    }
+    boolean isCancelled() {
+        return cancelled;
     }
 
     void setThreadPriority(int p) {
@@ -166,6 +181,8 @@ class AppsCustomizeAsyncTask extends AsyncTask<AsyncTaskPageData, Void, AsyncTas
     AsyncTaskPageData.Type dataType;
     int page;
     int threadPriority;
+    final AsyncTaskPageData data;
+    private volatile boolean cancelled;
 }
 
 abstract class WeakReferenceThreadLocal<T> {
@@ -265,6 +282,17 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
     // Caching
     private Canvas mCanvas;
     private IconCache mIconCache;
+    private WidgetPreviewCache mWidgetPreviewCache;
+    private PreviewBitmapCache mPreviewBitmapCache;
+
+    // The memory retained pages may use is this fraction of the per-app heap
+    // limit. Together with IconCache (1/8) and PreviewBitmapCache (1/16) the
+    // caches take at most a quarter of the heap
+    private static final int RETAINED_PAGES_MEMORY_CLASS_FRACTION = 16;
+    private final long mRetainedPagesMaxBytes;
+    private final int mMaxRetainedPages;
+    // 内存紧张时不再保留页面，直到下一次onResume()
+    private boolean mRetainedPagesTrimmed;
 
     // Dimens
     private int mContentWidth;
@@ -289,7 +317,12 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
     // Previews & outlines
     ArrayList<AppsCustomizeAsyncTask> mRunningTasks;
-    private static final int sPageSleepDelay = 200;
+    /**
+     * 预览图在这里加载，离当前页（或正在滑向的页）越近越先加载
+     */
+    private static final PreviewLoadExecutor sPreviewLoader = new PreviewLoadExecutor(
+            "launcher-previews", Math.max(1, Math.min(2,
+                    Runtime.getRuntime().availableProcessors())));
 
     private Runnable mInflateWidgetRunnable = null;
     private Runnable mBindWidgetRunnable = null;
@@ -331,6 +364,10 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         mApps = new ArrayList<ApplicationInfo>();
         mWidgets = new ArrayList<Object>();
         mIconCache = ((LauncherApplication) context.getApplicationContext()).getIconCache();
+        mWidgetPreviewCache = ((LauncherApplication) context.getApplicationContext())
+                .getWidgetPreviewCache();
+        mPreviewBitmapCache = ((LauncherApplication) context.getApplicationContext())
+                .getPreviewBitmapCache();
         mCanvas = new Canvas();
         mRunningTasks = new ArrayList<AppsCustomizeAsyncTask>();
 
@@ -338,6 +375,12 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         Resources resources = context.getResources();
         mAppIconSize = resources.getDimensionPixelSize(R.dimen.app_icon_size);
 
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mRetainedPagesMaxBytes = (long) activityManager.getMemoryClass() * 1024 * 1024
+                / RETAINED_PAGES_MEMORY_CLASS_FRACTION;
+        mMaxRetainedPages = resources.getInteger(R.integer.config_appsCustomizeMaxRetainedPages);
+
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.AppsCustomizePagedView, 0, 0);
         mMaxAppCellCountX = a.getInt(R.styleable.AppsCustomizePagedView_maxAppCellCountX, -1);
         mMaxAppCellCountY = a.getInt(R.styleable.AppsCustomizePagedView_maxAppCellCountY, -1);
@@ -552,8 +595,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             }
         }
         mWidgets.addAll(shortcuts);
-        Collections.sort(mWidgets,
-                new LauncherModel.WidgetAndShortcutNameComparator(mPackageManager));
+        LauncherModel.sortWidgetsAndShortcutsByName(mWidgets, mPackageManager);
         updatePageCounts();
         invalidateOnDataChange();
     }
@@ -772,6 +814,8 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         Bitmap preview;
         Bitmap outline;
         float scale = 1f;
+        // 小部件的预览图来自共享的缓存，不能recycle
+        boolean recyclePreview = false;
         if (createItemInfo instanceof PendingAddWidgetInfo) {
             // This can happen in some weird cases involving multi-touch. We can't start dragging
             // the widget if this is null, so we break out.
@@ -779,31 +823,13 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                 return false;
             }
 
-            PendingAddWidgetInfo createWidgetInfo = mCreateWidgetInfo;
-            createItemInfo = createWidgetInfo;
-            int spanX = createItemInfo.spanX;
-            int spanY = createItemInfo.spanY;
-            int[] size = mLauncher.getWorkspace().estimateItemSize(spanX, spanY,
-                    createWidgetInfo, true);
+            createItemInfo = mCreateWidgetInfo;
 
+            // Drag the preview the page already shows, DragView scales it.
+            // Rendering a larger one here would miss the caches and read the
+            // disk on the UI thread
             FastBitmapDrawable previewDrawable = (FastBitmapDrawable) image.getDrawable();
-            float minScale = 1.25f;
-            int maxWidth, maxHeight;
-            maxWidth = Math.min((int) (previewDrawable.getIntrinsicWidth() * minScale), size[0]);
-            maxHeight = Math.min((int) (previewDrawable.getIntrinsicHeight() * minScale), size[1]);
-            preview = getWidgetPreview(createWidgetInfo.componentName, createWidgetInfo.previewImage,
-                    createWidgetInfo.icon, spanX, spanY, maxWidth, maxHeight);
-
-            // Determine the image view drawable scale relative to the preview
-            float[] mv = new float[9];
-            Matrix m = new Matrix();
-            m.setRectToRect(
-                    new RectF(0f, 0f, (float) preview.getWidth(), (float) preview.getHeight()),
-                    new RectF(0f, 0f, (float) previewDrawable.getIntrinsicWidth(),
-                            (float) previewDrawable.getIntrinsicHeight()),
-                    Matrix.ScaleToFit.START);
-            m.getValues(mv);
-            scale = (float) mv[0];
+            preview = previewDrawable.getBitmap();
         } else {
             PendingAddShortcutInfo createShortcutInfo = (PendingAddShortcutInfo) v.getTag();
             Drawable icon = mIconCache.getFullResIcon(createShortcutInfo.shortcutActivityInfo);
@@ -817,6 +843,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             mCanvas.restore();
             mCanvas.setBitmap(null);
             createItemInfo.spanX = createItemInfo.spanY = 1;
+            recyclePreview = true;
         }
 
         // Don't clip alpha values for the drag outline if we're using the default widget preview
@@ -833,7 +860,9 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         mDragController.startDrag(image, preview, this, createItemInfo,
                 DragController.DRAG_ACTION_COPY, null, scale);
         outline.recycle();
-        preview.recycle();
+        if (recyclePreview) {
+            preview.recycle();
+        }
         return true;
     }
 
@@ -990,6 +1019,7 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         while (iter.hasNext()) {
             AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
             task.cancel(false);
+            sPreviewLoader.remove(task);
             iter.remove();
             mDirtyPageContent.set(task.page, true);
 
@@ -1015,12 +1045,23 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         super.snapToPage(whichPage, delta, duration);
         updateCurrentTab(whichPage);
 
+        // Pages we are snapping to load first; work for pages that will fall out of the
+        // window is dropped before it starts, those pages are reloaded when they come back
+        sPreviewLoader.setTargetPage(whichPage);
+        final int lowerPageBound = getAssociatedLowerPageBound(whichPage);
+        final int upperPageBound = getAssociatedUpperPageBound(whichPage);
+        sPreviewLoader.retainPages(lowerPageBound, upperPageBound);
+
         // Update the thread priorities given the direction lookahead
         Iterator<AppsCustomizeAsyncTask> iter = mRunningTasks.iterator();
         while (iter.hasNext()) {
             AppsCustomizeAsyncTask task = (AppsCustomizeAsyncTask) iter.next();
             int pageIndex = task.page;
-            if ((mNextPage > mCurrentPage && pageIndex >= mCurrentPage) ||
+            if (pageIndex < lowerPageBound || pageIndex > upperPageBound) {
+                task.cancel(false);
+                iter.remove();
+                mDirtyPageContent.set(pageIndex, true);
+            } else if ((mNextPage > mCurrentPage && pageIndex >= mCurrentPage) ||
                 (mNextPage < mCurrentPage && pageIndex <= mCurrentPage)) {
                 task.setThreadPriority(getThreadPriorityForPage(pageIndex));
             } else {
@@ -1102,6 +1143,24 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         }
 
         layout.createHardwareLayers();
+        updatePinnedAppIcons();
+    }
+
+    /**
+     * Pins the icons of the current apps page and its neighbours (the pages
+     * kept populated by loadAssociatedPages()) in the icon cache.
+     */
+    private void updatePinnedAppIcons() {
+        int numCells = mCellCountX * mCellCountY;
+        if (numCells <= 0) return;
+        int page = mNextPage > -1 ? mNextPage : mCurrentPage;
+        int startIndex = Math.max(0, page - 1) * numCells;
+        int endIndex = Math.min((page + 2) * numCells, mApps.size());
+        ArrayList<ComponentName> pinned = new ArrayList<ComponentName>();
+        for (int i = startIndex; i < endIndex; ++i) {
+            pinned.add(mApps.get(i).componentName);
+        }
+        mIconCache.setPinnedComponents(IconCache.PIN_ALL_APPS, pinned);
     }
 
     /**
@@ -1142,12 +1201,9 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             return Process.THREAD_PRIORITY_LOWEST;
         }
     }
-    private int getSleepForPage(int page) {
-        int pageDiff = getWidgetPageLoadPriority(page);
-        return Math.max(0, pageDiff * sPageSleepDelay);
-    }
     /**
-     * Creates and executes a new AsyncTask to load a page of widget previews.
+     * Creates a task to load a page of widget previews and queues it on
+     * sPreviewLoader.
      */
     private void prepareLoadWidgetPreviewsTask(int page, ArrayList<Object> widgets,
             int cellWidth, int cellHeight, int cellCountX) {
@@ -1160,22 +1216,21 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
             if (taskPage < getAssociatedLowerPageBound(mCurrentPage) ||
                     taskPage > getAssociatedUpperPageBound(mCurrentPage)) {
                 task.cancel(false);
+                sPreviewLoader.remove(task);
                 iter.remove();
+                // Its previews never arrived, don't let the page be retained half loaded
+                mDirtyPageContent.set(taskPage, true);
             } else {
                 task.setThreadPriority(getThreadPriorityForPage(taskPage));
             }
         }
 
-        // We introduce a slight delay to order the loading of side pages so that we don't thrash
-        final int sleepMs = getSleepForPage(page);
+        // Side pages are ordered behind the current one by sPreviewLoader, no need to delay them
         AsyncTaskPageData pageData = new AsyncTaskPageData(page, widgets, cellWidth, cellHeight,
             new AsyncTaskCallback() {
                 @Override
                 public void run(AppsCustomizeAsyncTask task, AsyncTaskPageData data) {
                     try {
-                        try {
-                            Thread.sleep(sleepMs);
-                        } catch (Exception e) {}
                         loadWidgetPreviewsInBackground(task, data);
                     } finally {
                         if (task.isCancelled()) {
@@ -1194,11 +1249,12 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                 }
             });
 
-        // Ensure that the task is appropriately prioritized and runs in parallel
+        // Ensure that the task is appropriately prioritized
         AppsCustomizeAsyncTask t = new AppsCustomizeAsyncTask(page,
-                AsyncTaskPageData.Type.LoadWidgetPreviewData);
+                AsyncTaskPageData.Type.LoadWidgetPreviewData, pageData);
         t.setThreadPriority(getThreadPriorityForPage(page));
-        t.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, pageData);
+        sPreviewLoader.setTargetPage(mNextPage > -1 ? mNextPage : mCurrentPage);
+        sPreviewLoader.execute(t);
         mRunningTasks.add(t);
     }
 
@@ -1234,19 +1290,47 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         }
     }
 
+    /**
+     * 先查内存缓存，再查磁盘缓存，都没有的话才渲染，并保存到两个缓存里。
+     * 返回的Bitmap是共享的，不能recycle
+     */
+    private Bitmap getCachedWidgetPreview(ComponentName provider, int previewImage,
+            int iconId, int cellHSpan, int cellVSpan, int maxWidth, int maxHeight) {
+        final String key = PreviewBitmapCache.getKey(provider, cellHSpan, cellVSpan,
+                maxWidth, maxHeight);
+        final int generation = mPreviewBitmapCache.getGeneration();
+        Bitmap b = mPreviewBitmapCache.get(key);
+        if (b != null) {
+            return b;
+        }
+        // The version is read before rendering, so an update while rendering
+        // leaves a preview tagged with the old version that get() throws away
+        final PackageInfo pi = mWidgetPreviewCache.getPackageInfo(provider);
+        b = mWidgetPreviewCache.get(provider, pi, cellHSpan, cellVSpan, maxWidth, maxHeight);
+        if (b == null) {
+            b = getWidgetPreview(provider, previewImage, iconId, cellHSpan, cellVSpan,
+                    maxWidth, maxHeight);
+            mWidgetPreviewCache.put(provider, pi, cellHSpan, cellVSpan, maxWidth, maxHeight,
+                    b);
+        }
+        mPreviewBitmapCache.put(key, generation, b);
+        return b;
+    }
+
+    private Bitmap getCachedShortcutPreview(ResolveInfo info, int maxWidth, int maxHeight) {
+        final ComponentName component = new ComponentName(info.activityInfo.packageName,
+                info.activityInfo.name);
+        final String key = PreviewBitmapCache.getKey(component, 1, 1, maxWidth, maxHeight);
+        final int generation = mPreviewBitmapCache.getGeneration();
+        Bitmap b = mPreviewBitmapCache.get(key);
+        if (b == null) {
+            b = getShortcutPreview(info, maxWidth, maxHeight);
+            mPreviewBitmapCache.put(key, generation, b);
+        }
+        return b;
+    }
+
     private Bitmap getShortcutPreview(ResolveInfo info, int maxWidth, int maxHeight) {
-        Bitmap tempBitmap = mCachedShortcutPreviewBitmap.get();
-        final Canvas c = mCachedShortcutPreviewCanvas.get();
-        if (tempBitmap == null ||
-                tempBitmap.getWidth() != maxWidth ||
-                tempBitmap.getHeight() != maxHeight) {
-            tempBitmap = Bitmap.createBitmap(maxWidth, maxHeight, Config.ARGB_8888);
-            mCachedShortcutPreviewBitmap.set(tempBitmap);
-        } else {
-            c.setBitmap(tempBitmap);
-            c.drawColor(0, PorterDuff.Mode.CLEAR);
-            c.setBitmap(null);
-        }
         // Render the icon
         Drawable icon = mIconCache.getFullResIcon(info);
 
@@ -1259,11 +1343,49 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
         int scaledIconWidth = (maxWidth - paddingLeft - paddingRight);
 
-        renderDrawableToBitmap(
-                icon, tempBitmap, paddingLeft, paddingTop, scaledIconWidth, scaledIconWidth);
-
         Bitmap preview = Bitmap.createBitmap(maxWidth, maxHeight, Config.ARGB_8888);
-        c.setBitmap(preview);
+        if (scaledIconWidth > 0) {
+            final Canvas c = mCachedShortcutPreviewCanvas.get();
+            c.setBitmap(preview);
+            c.drawBitmap(getShortcutPreviewGhost(info, icon, scaledIconWidth),
+                    paddingLeft, paddingTop, null);
+            c.setBitmap(null);
+        }
+
+        renderDrawableToBitmap(icon, preview, 0, 0, mAppIconSize, mAppIconSize);
+
+        return preview;
+    }
+
+    /**
+     * 快捷方式预览图背景上放大、去色、6%透明度的图标。按组件和大小缓存在
+     * PreviewBitmapCache里，滤镜只在生成时执行一次，之后直接贴上去
+     */
+    private Bitmap getShortcutPreviewGhost(ResolveInfo info, Drawable icon, int size) {
+        final String key = PreviewBitmapCache.getGhostKey(new ComponentName(
+                info.activityInfo.packageName, info.activityInfo.name), size);
+        final int generation = mPreviewBitmapCache.getGeneration();
+        Bitmap ghost = mPreviewBitmapCache.get(key);
+        if (ghost != null) {
+            return ghost;
+        }
+
+        Bitmap tempBitmap = mCachedShortcutPreviewBitmap.get();
+        final Canvas c = mCachedShortcutPreviewCanvas.get();
+        if (tempBitmap == null ||
+                tempBitmap.getWidth() != size ||
+                tempBitmap.getHeight() != size) {
+            tempBitmap = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+            mCachedShortcutPreviewBitmap.set(tempBitmap);
+        } else {
+            c.setBitmap(tempBitmap);
+            c.drawColor(0, PorterDuff.Mode.CLEAR);
+            c.setBitmap(null);
+        }
+        renderDrawableToBitmap(icon, tempBitmap, 0, 0, size, size);
+
+        ghost = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+        c.setBitmap(ghost);
         Paint p = mCachedShortcutPreviewPaint.get();
         if (p == null) {
             p = new Paint();
@@ -1278,11 +1400,119 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         c.drawBitmap(tempBitmap, 0, 0, p);
         c.setBitmap(null);
 
-        renderDrawableToBitmap(icon, preview, 0, 0, mAppIconSize, mAppIconSize);
+        mPreviewBitmapCache.put(key, generation, ghost);
+        return ghost;
+    }
 
+    /**
+     * 如果预览图是位图资源，先只读出它的大小，再按目标宽度用inSampleSize解码，
+     * 避免把比格子大好几倍的原图完整解码出来再缩小。结果和下面的通用路径一样：
+     * 按资源密度换算后的大小，超过maxWidth时等比缩小到maxWidth。
+     *
+     * @return null if the resource is not a plain bitmap (e.g. xml or nine-patch) or can't
+     *         be decoded, the caller then goes through the drawable
+     */
+    private Bitmap decodeWidgetPreviewImage(ComponentName provider, int previewImage,
+            int maxWidth) {
+        final Resources res;
+        final TypedValue value = new TypedValue();
+        try {
+            res = mPackageManager.getResourcesForApplication(provider.getPackageName());
+            res.getValue(previewImage, value, true);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        } catch (Resources.NotFoundException e) {
+            return null;
+        }
+        final String file = value.string != null ? value.string.toString() : null;
+        if (file == null || file.endsWith(".xml") || file.endsWith(".9.png")) {
+            return null;
+        }
+
+        // Probe the size only
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        opts.inScaled = false;
+        decodePreviewResource(res, previewImage, value, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+
+        // The size the drawable would have had, see Bitmap.getScaledWidth()
+        int bitmapWidth = opts.outWidth;
+        int bitmapHeight = opts.outHeight;
+        final int targetDensity = res.getDisplayMetrics().densityDpi;
+        int density = value.density;
+        if (density == TypedValue.DENSITY_DEFAULT) {
+            density = DisplayMetrics.DENSITY_DEFAULT;
+        }
+        if (density != TypedValue.DENSITY_NONE && density != targetDensity) {
+            bitmapWidth = (bitmapWidth * targetDensity + (density >> 1)) / density;
+            bitmapHeight = (bitmapHeight * targetDensity + (density >> 1)) / density;
+        }
+        if (bitmapWidth > maxWidth) {
+            float scale = maxWidth / (float) bitmapWidth;
+            bitmapWidth = (int) (scale * bitmapWidth);
+            bitmapHeight = (int) (scale * bitmapHeight);
+        }
+        if (bitmapWidth <= 0 || bitmapHeight <= 0) {
+            return null;
+        }
+
+        // Largest power of two that keeps the decoded image at least as big as the target
+        int sampleSize = 1;
+        while (opts.outWidth / (sampleSize * 2) >= bitmapWidth
+                && opts.outHeight / (sampleSize * 2) >= bitmapHeight) {
+            sampleSize *= 2;
+        }
+        opts.inJustDecodeBounds = false;
+        opts.inSampleSize = sampleSize;
+        final Bitmap decoded = decodePreviewResource(res, previewImage, value, opts);
+        if (decoded == null) {
+            return null;
+        }
+        if (decoded.getWidth() == bitmapWidth && decoded.getHeight() == bitmapHeight) {
+            return decoded;
+        }
+
+        Bitmap preview = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Config.ARGB_8888);
+        final Canvas c = mCachedAppWidgetPreviewCanvas.get();
+        final Rect src = mCachedAppWidgetPreviewSrcRect.get();
+        final Rect dest = mCachedAppWidgetPreviewDestRect.get();
+        c.setBitmap(preview);
+        src.set(0, 0, decoded.getWidth(), decoded.getHeight());
+        dest.set(0, 0, bitmapWidth, bitmapHeight);
+        Paint p = mCachedAppWidgetPreviewPaint.get();
+        if (p == null) {
+            p = new Paint();
+            p.setFilterBitmap(true);
+            mCachedAppWidgetPreviewPaint.set(p);
+        }
+        c.drawBitmap(decoded, src, dest, p);
+        c.setBitmap(null);
+        decoded.recycle();
         return preview;
     }
 
+    private static Bitmap decodePreviewResource(Resources res, int id, TypedValue value,
+            BitmapFactory.Options opts) {
+        InputStream is = null;
+        try {
+            is = res.openRawResource(id, value);
+            return BitmapFactory.decodeStream(is, null, opts);
+        } catch (Resources.NotFoundException e) {
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
     private Bitmap getWidgetPreview(ComponentName provider, int previewImage,
             int iconId, int cellHSpan, int cellVSpan, int maxWidth,
             int maxHeight) {
@@ -1293,6 +1523,10 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
 
         Drawable drawable = null;
         if (previewImage != 0) {
+            Bitmap sampled = decodeWidgetPreviewImage(provider, previewImage, maxWidth);
+            if (sampled != null) {
+                return sampled;
+            }
             drawable = mPackageManager.getDrawable(packageName, previewImage, null);
             if (drawable == null) {
                 Log.w(TAG, "Can't load widget preview drawable 0x" +
@@ -1524,13 +1758,13 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
                         mWidgetSpacingLayout.estimateCellWidth(cellSpans[0]));
                 int maxHeight = Math.min(data.maxImageHeight,
                         mWidgetSpacingLayout.estimateCellHeight(cellSpans[1]));
-                Bitmap b = getWidgetPreview(info.provider, info.previewImage, info.icon,
-                        cellSpans[0], cellSpans[1], maxWidth, maxHeight);
-                images.add(b);
+                images.add(getCachedWidgetPreview(info.provider, info.previewImage, info.icon,
+                        cellSpans[0], cellSpans[1], maxWidth, maxHeight));
             } else if (rawInfo instanceof ResolveInfo) {
                 // Fill in the shortcuts information
                 ResolveInfo info = (ResolveInfo) rawInfo;
-                images.add(getShortcutPreview(info, data.maxImageWidth, data.maxImageHeight));
+                images.add(getCachedShortcutPreview(info, data.maxImageWidth,
+                        data.maxImageHeight));
             }
         }
     }
@@ -1895,6 +2129,35 @@ public class AppsCustomizePagedView extends PagedViewWithDraggableItems implemen
         return windowMaxIndex;
     }
 
+    /**
+     * 保留的页数：每一页按一个页面大小的硬件层计算内存，在内存预算和
+     * config_appsCustomizeMaxRetainedPages之间取较小值
+     */
+    @Override
+    protected int getRetainedPageCount() {
+        if (mRetainedPagesTrimmed) {
+            return 0;
+        }
+        final long pageBytes = (long) getMeasuredWidth() * getMeasuredHeight() * 4;
+        if (pageBytes <= 0) {
+            return 0;
+        }
+        return (int) Math.min(mMaxRetainedPages, mRetainedPagesMaxBytes / pageBytes);
+    }
+
+    /**
+     * Releases the retained pages and keeps none until
+     * {@link #resetRetainedPages()}.
+     */
+    void trimRetainedPages() {
+        mRetainedPagesTrimmed = true;
+        releaseRetainedPages();
+    }
+
+    void resetRetainedPages() {
+        mRetainedPagesTrimmed = false;
+    }
+
     @Override
     protected String getCurrentPageDescription() {
         int page = (mNextPage != INVALID_PAGE) ? mNextPage : mCurrentPage;
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import java.util.Arrays;
+
+/**
+ * CellLayout的占用表。每一行用一个long的各个bit表示，另外维护一张二维前缀和表
+ * （summed-area table），所以“某个矩形是否全空”只需要常数时间。
+ * 前缀和只在查询时从第一个被修改的行开始重新计算
+ */
+final class CellOccupancy {
+    static final int MAX_COUNT_X = 64;
+
+    private int mCountX;
+    private int mCountY;
+    private long[] mRows;
+
+    /**
+     * mSums[y * (mCountX + 1) + x] is the number of occupied cells in
+     * [0, x) x [0, y)
+     */
+    private int[] mSums;
+    /**
+     * First row whose sums are stale, mCountY when the table is up to date
+     */
+    private int mDirtyRow;
+
+    CellOccupancy(int countX, int countY) {
+        checkCountX(countX);
+        mCountX = countX;
+        mCountY = countY;
+        mRows = new long[countY];
+        mSums = new int[(countX + 1) * (countY + 1)];
+        mDirtyRow = countY;
+    }
+
+    /**
+     * 复用同一个对象表示另一种大小的网格，只有变大时才重新分配。所有格子都会被清空
+     */
+    void resize(int countX, int countY) {
+        checkCountX(countX);
+        if (countY > mRows.length) {
+            mRows = new long[countY];
+        }
+        final int sums = (countX + 1) * (countY + 1);
+        if (sums > mSums.length) {
+            mSums = new int[sums];
+        } else {
+            // The stride may have changed, the zero row and column must stay zero
+            Arrays.fill(mSums, 0);
+        }
+        mCountX = countX;
+        mCountY = countY;
+        clear();
+    }
+
+    private static void checkCountX(int countX) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grids wider than " + MAX_COUNT_X
+                    + " cells are not supported: " + countX);
+        }
+    }
+
+    int getCountX() {
+        return mCountX;
+    }
+
+    int getCountY() {
+        return mCountY;
+    }
+
+    boolean get(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    void set(int x, int y, boolean value) {
+        if (value) {
+            mRows[y] |= 1L << x;
+        } else {
+            mRows[y] &= ~(1L << x);
+        }
+        mDirtyRow = Math.min(mDirtyRow, y);
+    }
+
+    /**
+     * Marks the rect, clipped to the grid. Nothing happens for a negative
+     * origin, same as CellLayout always did.
+     */
+    void mark(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0) return;
+        final int right = Math.min(cellX + spanX, mCountX);
+        final int bottom = Math.min(cellY + spanY, mCountY);
+        if (right <= cellX || bottom <= cellY) return;
+
+        final long mask = rowMask(cellX, right - cellX);
+        for (int y = cellY; y < bottom; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
+            }
+        }
+        mDirtyRow = Math.min(mDirtyRow, cellY);
+    }
+
+    void clear() {
+        for (int y = 0; y < mCountY; y++) {
+            mRows[y] = 0;
+        }
+        mDirtyRow = 0;
+    }
+
+    void copyFrom(CellOccupancy other) {
+        if (other.mCountX != mCountX || other.mCountY != mCountY) {
+            throw new IllegalArgumentException("Grid size mismatch");
+        }
+        System.arraycopy(other.mRows, 0, mRows, 0, mCountY);
+        mDirtyRow = 0;
+    }
+
+    /**
+     * @return the number of occupied cells in the rect, which must lie inside
+     *         the grid
+     */
+    int countOccupied(int cellX, int cellY, int spanX, int spanY) {
+        updateSums();
+        final int stride = mCountX + 1;
+        final int top = cellY * stride;
+        final int bottom = (cellY + spanY) * stride;
+        return mSums[bottom + cellX + spanX] - mSums[bottom + cellX]
+                - mSums[top + cellX + spanX] + mSums[top + cellX];
+    }
+
+    /**
+     * @return true if the rect lies inside the grid and none of its cells is
+     *         occupied
+     */
+    boolean isVacant(int cellX, int cellY, int spanX, int spanY) {
+        if (cellX < 0 || cellY < 0 || spanX <= 0 || spanY <= 0
+                || cellX + spanX > mCountX || cellY + spanY > mCountY) {
+            return false;
+        }
+        return countOccupied(cellX, cellY, spanX, spanY) == 0;
+    }
+
+    /**
+     * Whether the occupied cells of block, placed with its top left corner at
+     * (cellX, cellY), land only on vacant cells of this grid.
+     */
+    boolean fits(int cellX, int cellY, CellOccupancy block) {
+        if (cellX < 0 || cellY < 0 || cellX + block.mCountX > mCountX
+                || cellY + block.mCountY > mCountY) {
+            return false;
+        }
+        for (int j = 0; j < block.mCountY; j++) {
+            if (((mRows[cellY + j] >>> cellX) & block.mRows[j]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean hasVacantCell() {
+        final long full = rowMask(0, mCountX);
+        for (int y = 0; y < mCountY; y++) {
+            if (mRows[y] != full) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first vacant rect of the given span in row-major order.
+     */
+    boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; y + spanY <= mCountY; y++) {
+            for (int x = 0; x + spanX <= mCountX; x++) {
+                if (isVacant(x, y, spanX, spanY)) {
+                    vacant[0] = x;
+                    vacant[1] = y;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void updateSums() {
+        final int stride = mCountX + 1;
+        for (int y = mDirtyRow; y < mCountY; y++) {
+            final long row = mRows[y];
+            final int above = y * stride;
+            final int current = above + stride;
+            int rowCount = 0;
+            for (int x = 0; x < mCountX; x++) {
+                rowCount += (int) ((row >>> x) & 1);
+                mSums[current + x + 1] = mSums[above + x + 1] + rowCount;
+            }
+        }
+        mDirtyRow = mCountY;
+    }
+
+    private static long rowMask(int cellX, int spanX) {
+        final long bits = spanX >= 64 ? -1L : (1L << spanX) - 1;
+        return bits << cellX;
+    }
+}
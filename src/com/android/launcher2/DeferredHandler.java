@@ -20,9 +20,12 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
-import android.util.Pair;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
 
 /**
  * Queue of things to run on a looper thread.  Items posted with {@link #post} will not
@@ -30,49 +33,87 @@ import java.util.ListIterator;
  * starving the thread.
  *
  * This class is fifo.
- * 先进先出执行任务的队列
+ * 先进先出执行任务的队列。每个消息里在一帧的时间预算内尽量多执行几个任务，
+ * 超出预算就把剩下的留到下一个消息，让输入和绘制先执行
  */
 public class DeferredHandler {
-    private LinkedList<Pair<Runnable, Integer>> mQueue = new LinkedList<Pair<Runnable, Integer>>();
+    private static final String TAG = "Launcher.DeferredHandler";
+
+    /** Default time a single message may spend running queued runnables */
+    private static final int DEFAULT_FRAME_BUDGET_MS = 4;
+
+    /**
+     * Upper bounds (exclusive, in ms) of the queue latency histogram buckets,
+     * the last bucket takes everything above.
+     */
+    private static final int[] LATENCY_BUCKETS = {
+            1, 2, 4, 8, 16, 32, 64, 128, 256
+    };
+
+    private static final int MAX_POOLED_ENTRIES = 32;
+
+    private static class Entry {
+        Runnable runnable;
+        int type;
+        /** Generation of the type when posted, see cancelAllRunnablesOfType() */
+        int generation;
+        boolean idle;
+        long postTime;
+    }
+
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> mPool = new ArrayDeque<Entry>();
+    /** Type -> generation, bumped to cancel every queued runnable of the type */
+    private final SparseIntArray mTypeGenerations = new SparseIntArray();
+    private final int[] mLatencyHistogram = new int[LATENCY_BUCKETS.length + 1];
+    private long mMaxLatency;
+
+    private int mFrameBudgetMs = DEFAULT_FRAME_BUDGET_MS;
     private MessageQueue mMessageQueue = Looper.myQueue();
     private Impl mHandler = new Impl();
 
     private class Impl extends Handler implements MessageQueue.IdleHandler {
         public void handleMessage(Message msg) {
-            Pair<Runnable, Integer> p;
-            Runnable r;
-            synchronized (mQueue) {
-                if (mQueue.size() == 0) {
-                    return;
+            final long deadline = SystemClock.uptimeMillis() + mFrameBudgetMs;
+            do {
+                final Runnable r;
+                synchronized (mQueue) {
+                    r = pollLocked(false);
                 }
-                p = mQueue.removeFirst();
-                r = p.first;
-            }
-            r.run();
+                if (r == null) {
+                    break;
+                }
+                r.run();
+            } while (SystemClock.uptimeMillis() < deadline);
             synchronized (mQueue) {
                 scheduleNextLocked();
             }
         }
 
         public boolean queueIdle() {
-            handleMessage(null);
+            final Runnable r;
+            synchronized (mQueue) {
+                r = pollLocked(true);
+            }
+            if (r != null) {
+                r.run();
+            }
+            synchronized (mQueue) {
+                scheduleNextLocked();
+            }
             return false;
         }
     }
 
-    private class IdleRunnable implements Runnable {
-        Runnable mRunnable;
-
-        IdleRunnable(Runnable r) {
-            mRunnable = r;
-        }
-
-        public void run() {
-            mRunnable.run();
-        }
+    public DeferredHandler() {
     }
 
-    public DeferredHandler() {
+    /**
+     * Sets how long a single message may keep running queued runnables
+     * before yielding to input and drawing.
+     */
+    public void setFrameBudget(int budgetMs) {
+        mFrameBudgetMs = Math.max(0, budgetMs);
     }
 
     /** Schedule runnable to run after everything that's on the queue right now. */
@@ -80,12 +121,7 @@ public class DeferredHandler {
         post(runnable, 0);
     }
     public void post(Runnable runnable, int type) {
-        synchronized (mQueue) {
-            mQueue.add(new Pair<Runnable, Integer>(runnable, type));
-            if (mQueue.size() == 1) {
-                scheduleNextLocked();
-            }
-        }
+        enqueue(runnable, type, false);
     }
 
     /** Schedule runnable to run when the queue goes idle. */
@@ -93,50 +129,159 @@ public class DeferredHandler {
         postIdle(runnable, 0);
     }
     public void postIdle(final Runnable runnable, int type) {
-        post(new IdleRunnable(runnable), type);
+        enqueue(runnable, type, true);
     }
 
-    public void cancelRunnable(Runnable runnable) {
+    private void enqueue(Runnable runnable, int type, boolean idle) {
         synchronized (mQueue) {
-            while (mQueue.remove(runnable)) { }
+            Entry entry = mPool.poll();
+            if (entry == null) {
+                entry = new Entry();
+            }
+            entry.runnable = runnable;
+            entry.type = type;
+            entry.generation = mTypeGenerations.get(type);
+            entry.idle = idle;
+            entry.postTime = SystemClock.uptimeMillis();
+            mQueue.add(entry);
+            if (mQueue.size() == 1) {
+                scheduleNextLocked();
+            }
         }
     }
-    public void cancelAllRunnablesOfType(int type) {
+
+    public void cancelRunnable(Runnable runnable) {
         synchronized (mQueue) {
-            ListIterator<Pair<Runnable, Integer>> iter = mQueue.listIterator();
-            Pair<Runnable, Integer> p;
+            Iterator<Entry> iter = mQueue.iterator();
             while (iter.hasNext()) {
-                p = iter.next();
-                if (p.second == type) {
+                Entry entry = iter.next();
+                if (entry.runnable == runnable) {
                     iter.remove();
+                    recycleLocked(entry);
                 }
             }
         }
     }
 
+    /**
+     * Constant time: the queued runnables of the type are dropped when they
+     * reach the head of the queue.
+     */
+    public void cancelAllRunnablesOfType(int type) {
+        synchronized (mQueue) {
+            mTypeGenerations.put(type, mTypeGenerations.get(type) + 1);
+        }
+    }
+
     public void cancel() {
         synchronized (mQueue) {
-            mQueue.clear();
+            while (!mQueue.isEmpty()) {
+                recycleLocked(mQueue.poll());
+            }
         }
     }
 
     /** Runs all queued Runnables from the calling thread. */
     public void flush() {
-        LinkedList<Pair<Runnable, Integer>> queue = new LinkedList<Pair<Runnable, Integer>>();
+        int count;
         synchronized (mQueue) {
-            queue.addAll(mQueue);
-            mQueue.clear();
+            count = mQueue.size();
+        }
+        // Only what is queued now, not what these runnables post
+        while (count-- > 0) {
+            final Runnable r;
+            synchronized (mQueue) {
+                if (mQueue.isEmpty()) {
+                    break;
+                }
+                final Entry entry = mQueue.poll();
+                r = isCancelledLocked(entry) ? null : entry.runnable;
+                recycleLocked(entry);
+            }
+            if (r != null) {
+                r.run();
+            }
         }
-        for (Pair<Runnable, Integer> p : queue) {
-            p.first.run();
+    }
+
+    /**
+     * Removes and returns the next runnable to run, skipping cancelled ones.
+     * Returns null if the queue is empty, or if the head is an idle runnable
+     * and idle is false.
+     */
+    private Runnable pollLocked(boolean idle) {
+        Entry entry;
+        while ((entry = mQueue.peek()) != null) {
+            if (isCancelledLocked(entry)) {
+                recycleLocked(mQueue.poll());
+                continue;
+            }
+            if (entry.idle && !idle) {
+                return null;
+            }
+            mQueue.poll();
+            final Runnable r = entry.runnable;
+            recordLatencyLocked(SystemClock.uptimeMillis() - entry.postTime);
+            recycleLocked(entry);
+            return r;
         }
+        return null;
+    }
+
+    private boolean isCancelledLocked(Entry entry) {
+        return entry.generation != mTypeGenerations.get(entry.type);
+    }
+
+    private void recycleLocked(Entry entry) {
+        entry.runnable = null;
+        if (mPool.size() < MAX_POOLED_ENTRIES) {
+            mPool.add(entry);
+        }
+    }
+
+    private void recordLatencyLocked(long latency) {
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && latency >= LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        mLatencyHistogram[bucket]++;
+        if (latency > mMaxLatency) {
+            mMaxLatency = latency;
+        }
+    }
+
+    /**
+     * Returns a copy of the queue latency histogram: entry i counts the
+     * runnables that waited less than 2^i ms (1, 2, 4 ... 256), the last
+     * entry those that waited longer.
+     */
+    public int[] getLatencyHistogram() {
+        synchronized (mQueue) {
+            return mLatencyHistogram.clone();
+        }
+    }
+
+    public void dumpStats() {
+        final StringBuilder sb = new StringBuilder("queue latency:");
+        synchronized (mQueue) {
+            for (int i = 0; i < mLatencyHistogram.length; i++) {
+                sb.append(i < LATENCY_BUCKETS.length ? " <" + LATENCY_BUCKETS[i] : " >=256")
+                        .append("ms=").append(mLatencyHistogram[i]);
+            }
+            sb.append(" max=").append(mMaxLatency).append("ms queued=")
+                    .append(mQueue.size());
+        }
+        Log.d(TAG, sb.toString());
     }
 
     void scheduleNextLocked() {
-        if (mQueue.size() > 0) {
-            Pair<Runnable, Integer> p = mQueue.getFirst();
-            Runnable peek = p.first;
-            if (peek instanceof IdleRunnable) {
+        // Drop cancelled entries so that we don't wake up for nothing
+        Entry entry;
+        while ((entry = mQueue.peek()) != null && isCancelledLocked(entry)) {
+            recycleLocked(mQueue.poll());
+        }
+        if (entry != null) {
+            if (entry.idle) {
                 mMessageQueue.addIdleHandler(mHandler);
             } else {
                 mHandler.sendEmptyMessage(1);
@@ -144,4 +289,3 @@ public class DeferredHandler {
         }
     }
 }
-
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * 一条独立的后台执行通道：一个有自己优先级的HandlerThread，任务按提交顺序执行。
+ * 记录队列深度、排队延迟和执行时间，并且可以被其它线程暂停（见{@link #pause()}）
+ */
+class ExecutionLane {
+    private static final String TAG = "Launcher.ExecutionLane";
+
+    private final String mName;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private final Object mStatsLock = new Object();
+    /**
+     * Runnable -> number of times it is queued, so that removeCallbacks()
+     * keeps the queue depth right
+     */
+    private final HashMap<Runnable, Integer> mQueued = new HashMap<Runnable, Integer>();
+    private int mQueueDepth;
+    private int mMaxQueueDepth;
+    private long mExecuted;
+    private long mTotalLatency;
+    private long mMaxLatency;
+    private long mTotalRunTime;
+
+    private final Object mPauseLock = new Object();
+    private int mPauseCount;
+    private boolean mParked;
+
+    /**
+     * Holds the lane while it is paused
+     */
+    private final Runnable mBarrier = new Runnable() {
+        public void run() {
+            synchronized (mPauseLock) {
+                mParked = true;
+                mPauseLock.notifyAll();
+                while (mPauseCount > 0) {
+                    try {
+                        mPauseLock.wait();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+                mParked = false;
+            }
+        }
+    };
+
+    /**
+     * @param priority a {@link Process} thread priority
+     */
+    ExecutionLane(String name, int priority) {
+        mName = name;
+        mThread = new HandlerThread(name, priority);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+                final boolean queued = super.sendMessageAtTime(msg, uptimeMillis);
+                if (queued && msg.getCallback() != null) {
+                    onQueued(msg.getCallback());
+                }
+                return queued;
+            }
+
+            @Override
+            public void dispatchMessage(Message msg) {
+                final Runnable callback = msg.getCallback();
+                if (callback == null) {
+                    super.dispatchMessage(msg);
+                    return;
+                }
+                // getWhen() is the time the message was due
+                final long start = SystemClock.uptimeMillis();
+                onDequeued(callback);
+                try {
+                    super.dispatchMessage(msg);
+                } finally {
+                    onExecuted(start - msg.getWhen(),
+                            SystemClock.uptimeMillis() - start);
+                }
+            }
+        };
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    boolean isCurrentThread() {
+        return mThread.getThreadId() == Process.myTid();
+    }
+
+    boolean post(Runnable r) {
+        return mHandler.post(r);
+    }
+
+    boolean postDelayed(Runnable r, long delayMillis) {
+        return mHandler.postDelayed(r, delayMillis);
+    }
+
+    /**
+     * Runs the runnable immediately if called from this lane, otherwise posts
+     * it.
+     */
+    void execute(Runnable r) {
+        if (isCurrentThread()) {
+            r.run();
+        } else {
+            post(r);
+        }
+    }
+
+    void removeCallbacks(Runnable r) {
+        mHandler.removeCallbacks(r);
+        synchronized (mStatsLock) {
+            final Integer count = mQueued.remove(r);
+            if (count != null) {
+                mQueueDepth -= count;
+            }
+        }
+    }
+
+    void setThreadPriority(int priority) {
+        Process.setThreadPriority(mThread.getThreadId(), priority);
+    }
+
+    /**
+     * Waits until everything posted so far has run, then holds the lane until
+     * {@link #resume()}. Pauses nest. Must not be called from the lane itself.
+     */
+    void pause() {
+        if (isCurrentThread()) {
+            throw new IllegalStateException("Lane " + mName
+                    + " can't pause itself");
+        }
+        synchronized (mPauseLock) {
+            if (mPauseCount++ == 0) {
+                mHandler.post(mBarrier);
+            }
+            while (!mParked) {
+                try {
+                    mPauseLock.wait();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    void resume() {
+        synchronized (mPauseLock) {
+            if (mPauseCount > 0 && --mPauseCount == 0) {
+                mPauseLock.notifyAll();
+            }
+        }
+    }
+
+    private void onQueued(Runnable r) {
+        synchronized (mStatsLock) {
+            final Integer count = mQueued.get(r);
+            mQueued.put(r, count != null ? count + 1 : 1);
+            mQueueDepth++;
+            if (mQueueDepth > mMaxQueueDepth) {
+                mMaxQueueDepth = mQueueDepth;
+            }
+        }
+    }
+
+    private void onDequeued(Runnable r) {
+        synchronized (mStatsLock) {
+            final Integer count = mQueued.get(r);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mQueued.put(r, count - 1);
+            } else {
+                mQueued.remove(r);
+            }
+            mQueueDepth--;
+        }
+    }
+
+    private void onExecuted(long latency, long runTime) {
+        synchronized (mStatsLock) {
+            mExecuted++;
+            mTotalLatency += Math.max(0, latency);
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            mTotalRunTime += runTime;
+        }
+    }
+
+    int getQueueDepth() {
+        synchronized (mStatsLock) {
+            return mQueueDepth;
+        }
+    }
+
+    void dumpStats() {
+        synchronized (mStatsLock) {
+            Log.d(TAG, mName + ": queued=" + mQueueDepth + " maxQueued="
+                    + mMaxQueueDepth + " executed=" + mExecuted
+                    + " avgLatency="
+                    + (mExecuted > 0 ? mTotalLatency / mExecuted : 0)
+                    + "ms maxLatency=" + mMaxLatency + "ms avgRun="
+                    + (mExecuted > 0 ? mTotalRunTime / mExecuted : 0) + "ms");
+        }
+    }
+}
@@ -17,43 +17,128 @@
 package com.android.launcher2;
 
 import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
-
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.text.CollationKey;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 缓存应用程序图标，图标有可能来自任何线程
+ * 缓存应用程序图标，图标有可能来自任何线程。查询不加全局锁，
+ * 同一个ComponentName同时只会生成一次
  */
 public class IconCache {
-    @SuppressWarnings("unused")
     private static final String TAG = "Launcher.IconCache";
 
     private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    // The icon budget is this fraction of the per-app heap limit, it shares
+    // a quarter of the heap with the preview and retained page budgets
+    private static final int MEMORY_CLASS_FRACTION = 8;
 
     /**
      * 图标对象，包括一个图像和一个标题
      */
     private static class CacheEntry {
-        public Bitmap icon;
-        public String title;
+        public volatile Bitmap icon;
+        public volatile String title;
+        public volatile CollationKey titleKey;
     }
 
     private final Bitmap mDefaultIcon;//默认图标
     private final LauncherApplication mContext;
     private final PackageManager mPackageManager;
-    private final HashMap<ComponentName, CacheEntry> mCache =
-            new HashMap<ComponentName, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final ConcurrentHashMap<ComponentName, FutureTask<CacheEntry>> mCache =
+            new ConcurrentHashMap<ComponentName, FutureTask<CacheEntry>>(
+                    INITIAL_ICON_CACHE_CAPACITY);
+    /**
+     * 包名到已缓存的ComponentName的索引，用于按包失效
+     */
+    private final ConcurrentHashMap<String, Set<ComponentName>> mPackageIndex =
+            new ConcurrentHashMap<String, Set<ComponentName>>();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mWaits = new AtomicLong();
     private int mIconDpi;
 
+    /**
+     * 按图标字节数计费的LRU，只负责记账和淘汰，图标本身仍然在mCache里。
+     * 被钉住（桌面上已绑定的、“所有程序”可见页上的）的图标不会被淘汰
+     */
+    private final LinkedHashMap<ComponentName, LruEntry> mLru =
+            new LinkedHashMap<ComponentName, LruEntry>(INITIAL_ICON_CACHE_CAPACITY, 0.75f, true);
+    private final HashMap<Integer, HashSet<ComponentName>> mPinned =
+            new HashMap<Integer, HashSet<ComponentName>>();
+    private final long mDefaultMaxBytes;
+    private long mMaxBytes;
+    private long mSizeBytes;
+    private long mEvictions;
+
+    /**
+     * 计费的是哪一个计算任务，淘汰时只删除这个任务，不影响之后重新生成的
+     */
+    private static class LruEntry {
+        final FutureTask<CacheEntry> task;
+        final int bytes;
+
+        LruEntry(FutureTask<CacheEntry> task, int bytes) {
+            this.task = task;
+            this.bytes = bytes;
+        }
+    }
+
+    static final int PIN_WORKSPACE = 0;
+    static final int PIN_ALL_APPS = 1;
+
+    /**
+     * 磁盘缓存，以及写入、校验磁盘缓存的后台线程
+     */
+    private final PersistentIconCache mPersistentCache;
+    /**
+     * 包名 -> 磁盘记录被删除的次数和还没完成的写入数。写入磁盘前要检查生成图标时的次数
+     * 是否还一样，否则排在删除后面执行的写入会把刚删除的记录又写回去。
+     * 只有还有写入没完成的包才有记录，最后一个写入完成时移除
+     */
+    private final HashMap<String, PersistState> mPersistStates = new HashMap<String, PersistState>();
+
+    private static class PersistState {
+        int generation;
+        int pendingWrites;
+    }
+
+    private static final HandlerThread sPersistThread =
+            new HandlerThread("launcher-icon-cache", Process.THREAD_PRIORITY_BACKGROUND);
+    static {
+        sPersistThread.start();
+    }
+    private static final Handler sPersistHandler = new Handler(sPersistThread.getLooper());
+
     public IconCache(LauncherApplication context) {
         ActivityManager activityManager =
                 (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
@@ -65,6 +150,17 @@ public class IconCache {
         // need to set mIconDpi before getting default icon
         // 在取得默认icon之前应该设置Icon的dpi
         mDefaultIcon = makeDefaultIcon();
+        mPersistentCache = new PersistentIconCache(context, mIconDpi);
+        // Open (and create) the database off the UI thread
+        sPersistHandler.post(new Runnable() {
+            public void run() {
+                mPersistentCache.open();
+            }
+        });
+
+        mDefaultMaxBytes = (long) activityManager.getMemoryClass() * 1024 * 1024
+                / MEMORY_CLASS_FRACTION;
+        mMaxBytes = mDefaultMaxBytes;
     }
 
     public Drawable getFullResDefaultActivityIcon() {
@@ -133,11 +229,47 @@ public class IconCache {
     }
 
     /**
-     * 删除对应ComponentName的图标
+     * 删除对应ComponentName的图标，磁盘上的也一起删除
      */
     public void remove(ComponentName componentName) {
-        synchronized (mCache) {
-            mCache.remove(componentName);
+        evict(componentName);
+        Set<ComponentName> components = mPackageIndex.get(componentName.getPackageName());
+        if (components != null) {
+            components.remove(componentName);
+        }
+        // This is done synchronously so that a lookup following the removal
+        // (as in AllAppsList.updatePackage) can't find the stale entry.
+        deletePersisted(componentName, componentName.getPackageName());
+    }
+
+    /**
+     * 删除某个包的全部图标，只涉及该包自己的缓存项，磁盘上的也一起删除
+     */
+    public void removePackage(String packageName) {
+        evictPackage(packageName);
+        deletePersisted(null, packageName);
+    }
+
+    /**
+     * 只从内存中删除某个包的图标，磁盘上的保留。用于外部存储卸载，
+     * 包回来时版本没变的话可以直接用磁盘上的图标
+     */
+    public void evictPackage(String packageName) {
+        Set<ComponentName> components = mPackageIndex.remove(packageName);
+        if (components != null) {
+            for (ComponentName componentName : components) {
+                evict(componentName);
+            }
+        }
+    }
+
+    private void evict(ComponentName componentName) {
+        mCache.remove(componentName);
+        synchronized (mLru) {
+            LruEntry e = mLru.remove(componentName);
+            if (e != null) {
+                mSizeBytes -= e.bytes;
+            }
         }
     }
 
@@ -145,89 +277,474 @@ public class IconCache {
      * 清空缓存
      */
     public void flush() {
-        synchronized (mCache) {
-            mCache.clear();
+        mCache.clear();
+        mPackageIndex.clear();
+        synchronized (mLru) {
+            mLru.clear();
+            mSizeBytes = 0;
         }
     }
 
     /**
-     * 获得标题与图标
+     * 设置某一类调用者钉住的图标，会替换掉该调用者之前钉住的
      */
-    public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
-            HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            CacheEntry entry = cacheLocked(application.componentName, info, labelCache);
+    void setPinnedComponents(int owner, Collection<ComponentName> components) {
+        synchronized (mLru) {
+            mPinned.put(owner, new HashSet<ComponentName>(components));
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
+
+    /**
+     * 给某一类调用者再钉住一个图标，用于之后才加到桌面上的项，
+     * 整个集合在下次setPinnedComponents时替换
+     */
+    void pinComponent(int owner, ComponentName componentName) {
+        synchronized (mLru) {
+            HashSet<ComponentName> pinned = mPinned.get(owner);
+            if (pinned == null) {
+                pinned = new HashSet<ComponentName>();
+                mPinned.put(owner, pinned);
+            }
+            pinned.add(componentName);
+        }
+    }
 
-            application.title = entry.title;
-            application.iconBitmap = entry.icon;
+    /**
+     * 取消某一类调用者对一个图标的钉住，比如桌面上最后一个使用它的项被删除了
+     */
+    void unpinComponent(int owner, ComponentName componentName) {
+        synchronized (mLru) {
+            HashSet<ComponentName> pinned = mPinned.get(owner);
+            if (pinned != null) {
+                pinned.remove(componentName);
+            }
         }
     }
 
-    public Bitmap getIcon(Intent intent) {
-        synchronized (mCache) {
-            final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
-            ComponentName component = intent.getComponent();
+    /**
+     * Shrinks the memory budget according to the onTrimMemory() level. The
+     * budget stays reduced until {@link #resetMemoryBudget()}.
+     */
+    void trimMemory(int level) {
+        final long budget;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // Only keep what is pinned
+            budget = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            budget = mDefaultMaxBytes / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            budget = mDefaultMaxBytes / 2;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            budget = mDefaultMaxBytes * 3 / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            budget = mDefaultMaxBytes / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            budget = mDefaultMaxBytes / 2;
+        } else {
+            budget = mDefaultMaxBytes * 3 / 4;
+        }
+        synchronized (mLru) {
+            mMaxBytes = Math.min(mMaxBytes, budget);
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
 
-            if (resolveInfo == null || component == null) {
-                return mDefaultIcon;
+    /**
+     * 恢复默认的内存预算
+     */
+    void resetMemoryBudget() {
+        synchronized (mLru) {
+            mMaxBytes = mDefaultMaxBytes;
+        }
+    }
+
+    /**
+     * 计入新生成的缓存项，超出预算时淘汰最久未使用的。如果生成期间
+     * 这一项已经被删除或替换（evict、flush），就不再计费
+     */
+    private void charge(ComponentName componentName, FutureTask<CacheEntry> task,
+            CacheEntry entry) {
+        final Bitmap icon = entry.icon;
+        final int bytes = icon != null ? icon.getByteCount() : 0;
+        synchronized (mLru) {
+            if (mCache.get(componentName) != task) {
+                return;
+            }
+            LruEntry old = mLru.put(componentName, new LruEntry(task, bytes));
+            if (old != null) {
+                mSizeBytes -= old.bytes;
             }
+            mSizeBytes += bytes;
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, null);
-            return entry.icon;
+    private void touch(ComponentName componentName) {
+        synchronized (mLru) {
+            mLru.get(componentName);
         }
     }
 
-    public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
-            HashMap<Object, CharSequence> labelCache) {
-        synchronized (mCache) {
-            if (resolveInfo == null || component == null) {
-                return null;
+    private void trimToSizeLocked(long maxBytes) {
+        if (mSizeBytes <= maxBytes) {
+            return;
+        }
+        Iterator<Map.Entry<ComponentName, LruEntry>> iter = mLru.entrySet().iterator();
+        while (mSizeBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<ComponentName, LruEntry> e = iter.next();
+            if (isPinnedLocked(e.getKey())) {
+                continue;
+            }
+            iter.remove();
+            mSizeBytes -= e.getValue().bytes;
+            // A newer task for the same component isn't ours to drop
+            if (mCache.remove(e.getKey(), e.getValue().task)) {
+                Set<ComponentName> components = mPackageIndex.get(e.getKey().getPackageName());
+                if (components != null) {
+                    components.remove(e.getKey());
+                }
             }
+            mEvictions++;
+        }
+    }
 
-            CacheEntry entry = cacheLocked(component, resolveInfo, labelCache);
-            return entry.icon;
+    private boolean isPinnedLocked(ComponentName componentName) {
+        for (HashSet<ComponentName> pinned : mPinned.values()) {
+            if (pinned.contains(componentName)) {
+                return true;
+            }
         }
+        return false;
     }
 
-    public boolean isDefaultIcon(Bitmap icon) {
-        return mDefaultIcon == icon;
+    /**
+     * 获得标题与图标
+     */
+    public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
+            HashMap<Object, CharSequence> labelCache) {
+        CacheEntry entry = getEntry(application.componentName, info, labelCache);
+
+        application.title = entry.title;
+        application.titleKey = entry.titleKey;
+        application.iconBitmap = entry.icon;
     }
 
-    private CacheEntry cacheLocked(ComponentName componentName, ResolveInfo info,
+    public Bitmap getIcon(Intent intent) {
+        final ResolveInfo resolveInfo = mPackageManager.resolveActivity(intent, 0);
+        ComponentName component = intent.getComponent();
+
+        if (resolveInfo == null || component == null) {
+            return mDefaultIcon;
+        }
+
+        CacheEntry entry = getEntry(component, resolveInfo, null);
+        return entry.icon;
+    }
+
+    public Bitmap getIcon(ComponentName component, ResolveInfo resolveInfo,
             HashMap<Object, CharSequence> labelCache) {
-        CacheEntry entry = mCache.get(componentName);
-        if (entry == null) {
-            entry = new CacheEntry();
+        if (resolveInfo == null || component == null) {
+            return null;
+        }
 
-            mCache.put(componentName, entry);
+        CacheEntry entry = getEntry(component, resolveInfo, labelCache);
+        return entry.icon;
+    }
+
+    public boolean isDefaultIcon(Bitmap icon) {
+        return mDefaultIcon == icon;
+    }
 
-            ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
-            if (labelCache != null && labelCache.containsKey(key)) {
-                entry.title = labelCache.get(key).toString();
+    /**
+     * 取得缓存项。同一个ComponentName的并发请求共享一次计算，不同ComponentName之间互不阻塞
+     */
+    private CacheEntry getEntry(final ComponentName componentName, final ResolveInfo info,
+            final HashMap<Object, CharSequence> labelCache) {
+        FutureTask<CacheEntry> task = mCache.get(componentName);
+        if (task == null) {
+            FutureTask<CacheEntry> newTask = new FutureTask<CacheEntry>(
+                    new Callable<CacheEntry>() {
+                        public CacheEntry call() {
+                            return createEntry(componentName, info, labelCache);
+                        }
+                    });
+            task = mCache.putIfAbsent(componentName, newTask);
+            if (task == null) {
+                mMisses.incrementAndGet();
+                indexComponent(componentName);
+                task = newTask;
+                task.run();
+                CacheEntry entry = getIfDone(task);
+                if (entry != null) {
+                    charge(componentName, task, entry);
+                }
             } else {
-                entry.title = info.loadLabel(mPackageManager).toString();
-                if (labelCache != null) {
-                    labelCache.put(key, entry.title);
+                countLookup(componentName, task);
+            }
+        } else {
+            countLookup(componentName, task);
+        }
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
             }
-            if (entry.title == null) {
-                entry.title = info.activityInfo.name;
+        } catch (ExecutionException e) {
+            // Don't cache the failure, the next lookup will try again.
+            mCache.remove(componentName, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void indexComponent(ComponentName componentName) {
+        final String packageName = componentName.getPackageName();
+        Set<ComponentName> components = mPackageIndex.get(packageName);
+        if (components == null) {
+            Set<ComponentName> newComponents = Collections.newSetFromMap(
+                    new ConcurrentHashMap<ComponentName, Boolean>());
+            components = mPackageIndex.putIfAbsent(packageName, newComponents);
+            if (components == null) {
+                components = newComponents;
+            }
+        }
+        components.add(componentName);
+    }
+
+    private void countLookup(ComponentName componentName, FutureTask<CacheEntry> task) {
+        if (task.isDone()) {
+            mHits.incrementAndGet();
+            touch(componentName);
+        } else {
+            mWaits.incrementAndGet();
+        }
+    }
+
+    private CacheEntry createEntry(ComponentName componentName, ResolveInfo info,
+            HashMap<Object, CharSequence> labelCache) {
+        CacheEntry entry = new CacheEntry();
+
+        ComponentName key = LauncherModel.getComponentNameFromResolveInfo(info);
+        final String packageName = componentName.getPackageName();
+        final int generation = beginPersist(packageName);
+
+        // Use what was rendered by a previous process if we have it, and
+        // check in the background whether the package changed since. The UI
+        // thread doesn't read the disk, it renders the icon instead
+        PersistentIconCache.Entry saved = Looper.myLooper() != Looper.getMainLooper()
+                ? mPersistentCache.get(componentName) : null;
+        if (saved != null) {
+            endPersist(packageName);
+            entry.title = saved.title != null ? saved.title : info.activityInfo.name;
+            entry.icon = saved.icon;
+            if (labelCache != null) {
+                synchronized (labelCache) {
+                    if (!labelCache.containsKey(key)) {
+                        labelCache.put(key, entry.title);
+                    }
+                }
             }
+            entry.titleKey = LauncherModel.getCollationKey(entry.title);
+            validatePersistedEntry(componentName, saved);
+            return entry;
+        }
 
-            entry.icon = Utilities.createIconBitmap(
-                    getFullResIcon(info), mContext);
+        CharSequence cachedTitle = null;
+        if (labelCache != null) {
+            synchronized (labelCache) {
+                cachedTitle = labelCache.get(key);
+            }
+        }
+        if (cachedTitle != null) {
+            entry.title = cachedTitle.toString();
+        } else {
+            entry.title = info.loadLabel(mPackageManager).toString();
+            if (labelCache != null) {
+                synchronized (labelCache) {
+                    labelCache.put(key, entry.title);
+                }
+            }
+        }
+        if (entry.title == null) {
+            entry.title = info.activityInfo.name;
+        }
+        entry.titleKey = LauncherModel.getCollationKey(entry.title);
+
+        // The version the icon is rendered from, not whatever is installed
+        // by the time the write runs
+        final PackageInfo pi = getPackageInfo(packageName);
+        entry.icon = Utilities.createIconBitmap(
+                getFullResIcon(info), mContext);
+        if (pi != null) {
+            persistEntry(componentName, pi, generation, entry.title, entry.icon);
+        } else {
+            endPersist(packageName);
         }
         return entry;
     }
 
     public HashMap<ComponentName,Bitmap> getAllIcons() {
-        synchronized (mCache) {
-            HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
-            for (ComponentName cn : mCache.keySet()) {
-                final CacheEntry e = mCache.get(cn);
-                set.put(cn, e.icon);
+        HashMap<ComponentName,Bitmap> set = new HashMap<ComponentName,Bitmap>();
+        for (Map.Entry<ComponentName, FutureTask<CacheEntry>> e : mCache.entrySet()) {
+            CacheEntry entry = getIfDone(e.getValue());
+            if (entry != null) {
+                set.put(e.getKey(), entry.icon);
             }
-            return set;
         }
+        return set;
+    }
+
+    /**
+     * 只返回已经计算完成的缓存项，不等待
+     */
+    private static CacheEntry getIfDone(FutureTask<CacheEntry> task) {
+        if (task == null || !task.isDone() || task.isCancelled()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 命中、未命中、等待其他线程计算的次数，用于性能分析
+     */
+    long getHitCount() {
+        return mHits.get();
     }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    long getWaitCount() {
+        return mWaits.get();
+    }
+
+    void dumpStats() {
+        synchronized (mLru) {
+            Log.d(TAG, "size=" + mCache.size() + " bytes=" + mSizeBytes + "/" + mMaxBytes
+                    + " evictions=" + mEvictions + " hits=" + mHits.get()
+                    + " misses=" + mMisses.get() + " waits=" + mWaits.get());
+        }
+    }
+
+    /**
+     * 在后台线程把新生成的图标写入磁盘，记录的是生成图标时的包版本。
+     * 写入之后结束beginPersist()开始的写入
+     */
+    private void persistEntry(final ComponentName componentName, final PackageInfo pi,
+            final int generation, final String title, final Bitmap icon) {
+        sPersistHandler.post(new Runnable() {
+            public void run() {
+                synchronized (mPersistStates) {
+                    // Dropped if the package's records were deleted since
+                    final PersistState state = mPersistStates.get(pi.packageName);
+                    if (state != null && generation == state.generation) {
+                        mPersistentCache.put(componentName, pi.lastUpdateTime,
+                                pi.versionCode, title, icon);
+                    }
+                    endPersist(pi.packageName);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在后台线程检查磁盘缓存的记录是否过期。过期说明包在launcher没有运行时被更新过，
+     * 这时删除记录，并让LauncherModel按包更新处理：重新生成图标，
+     * 已经绑定的ApplicationInfo和快捷方式也通过bindAppsUpdated刷新
+     */
+    private void validatePersistedEntry(final ComponentName componentName,
+            final PersistentIconCache.Entry saved) {
+        sPersistHandler.post(new Runnable() {
+            public void run() {
+                final String packageName = componentName.getPackageName();
+                PackageInfo pi = getPackageInfo(packageName);
+                if (pi == null) {
+                    deletePersisted(componentName, packageName);
+                    return;
+                }
+                if (saved.isUpToDate(pi.lastUpdateTime, pi.versionCode)) {
+                    return;
+                }
+                deletePersisted(componentName, packageName);
+                evict(componentName);
+                LauncherModel model = mContext.getModel();
+                if (model != null) {
+                    model.onPackageIconsStale(packageName);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a possible write of the package's icons, returns the generation
+     * the write must still match. Every call is ended by endPersist().
+     */
+    private int beginPersist(String packageName) {
+        synchronized (mPersistStates) {
+            PersistState state = mPersistStates.get(packageName);
+            if (state == null) {
+                state = new PersistState();
+                mPersistStates.put(packageName, state);
+            }
+            state.pendingWrites++;
+            return state.generation;
+        }
+    }
+
+    private void endPersist(String packageName) {
+        synchronized (mPersistStates) {
+            final PersistState state = mPersistStates.get(packageName);
+            if (state != null && --state.pendingWrites <= 0) {
+                mPersistStates.remove(packageName);
+            }
+        }
+    }
+
+    /**
+     * 删除磁盘上的记录（componentName为null时删除整个包的），
+     * 之前生成、还没写入的记录都会被丢弃
+     */
+    private void deletePersisted(ComponentName componentName, String packageName) {
+        synchronized (mPersistStates) {
+            // Without pending writes there is nothing to invalidate
+            final PersistState state = mPersistStates.get(packageName);
+            if (state != null) {
+                state.generation++;
+            }
+            if (componentName != null) {
+                mPersistentCache.remove(componentName);
+            } else {
+                mPersistentCache.removePackage(packageName);
+            }
+        }
+    }
+
+    private PackageInfo getPackageInfo(String packageName) {
+        try {
+            return mPackageManager.getPackageInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
 }
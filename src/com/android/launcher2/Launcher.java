@@ -69,6 +69,8 @@ import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.method.TextKeyListener;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.Display;
 import android.view.HapticFeedbackConstants;
 import android.view.KeyEvent;
@@ -109,6 +111,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -258,6 +261,7 @@ public final class Launcher extends Activity implements View.OnClickListener,
 
 	private LauncherModel mModel;
 	private IconCache mIconCache;
+	private PreviewBitmapCache mPreviewBitmapCache;
 	private boolean mUserPresent = true;
 	private boolean mVisible = false;
 	private boolean mAttached = false;
@@ -292,6 +296,16 @@ public final class Launcher extends Activity implements View.OnClickListener,
 
 	private final ArrayList<Integer> mSynchronouslyBoundPages = new ArrayList<Integer>();
 
+	/**
+	 * 所在页面还没有绑定的桌面item，页面滑到附近时才创建它们的View
+	 */
+	private final SparseArray<ArrayList<ItemInfo>> mUnboundPageItems = new SparseArray<ArrayList<ItemInfo>>();
+	private final SparseBooleanArray mBoundPages = new SparseBooleanArray();
+	/**
+	 * 当前页两侧需要绑定的页数
+	 */
+	private int mBoundPageRadius;
+
 	static final ArrayList<String> sDumpLogs = new ArrayList<String>();
 
 	// We only want to get the SharedPreferences once since it does an FS stat
@@ -361,8 +375,11 @@ public final class Launcher extends Activity implements View.OnClickListener,
 				Context.MODE_PRIVATE);
 		mModel = app.setLauncher(this);
 		mIconCache = app.getIconCache();
+		mPreviewBitmapCache = app.getPreviewBitmapCache();
 		mDragController = new DragController(this);
 		mInflater = getLayoutInflater();
+		mBoundPageRadius = getResources().getInteger(
+				R.integer.config_workspaceBoundPageRadius);
 
 		mAppWidgetManager = AppWidgetManager.getInstance(this);
 		mAppWidgetHost = new LauncherAppWidgetHost(this, APPWIDGET_HOST_ID);
@@ -781,6 +798,13 @@ public final class Launcher extends Activity implements View.OnClickListener,
 		}
 		mOnResumeState = State.NONE;
 
+		// 前台运行时恢复图标、预览图缓存和保留页面的内存预算
+		mIconCache.resetMemoryBudget();
+		mPreviewBitmapCache.resetMemoryBudget();
+		if (mAppsCustomizeContent != null) {
+			mAppsCustomizeContent.resetRetainedPages();
+		}
+
 		// Background was set to gradient in onPause(), restore to black if in
 		// all apps.
 		setWorkspaceBackground(mState == State.WORKSPACE);
@@ -827,6 +851,8 @@ public final class Launcher extends Activity implements View.OnClickListener,
 		mPaused = true;
 		mDragController.cancelDrag();
 		mDragController.resetLastGestureUpTime();
+		// 把合并中的item更新马上写入数据库
+		LauncherModel.flushPendingItemUpdatesSoon();
 	}
 
 	@Override
@@ -3098,6 +3124,11 @@ public final class Launcher extends Activity implements View.OnClickListener,
 	@Override
 	public void onTrimMemory(int level) {
 		super.onTrimMemory(level);
+		mIconCache.trimMemory(level);
+		mPreviewBitmapCache.trimMemory(level);
+		if (mAppsCustomizeContent != null) {
+			mAppsCustomizeContent.trimRetainedPages();
+		}
 		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
 			mAppsCustomizeTabHost.onTrimMemory();
 		}
@@ -3715,11 +3746,157 @@ public final class Launcher extends Activity implements View.OnClickListener,
 			layoutParent.removeAllViewsInLayout();
 		}
 		mWidgetsToAdvance.clear();
+		mUnboundPageItems.clear();
+		mBoundPages.clear();
 		if (mHotseat != null) {
 			mHotseat.resetLayout();
 		}
 	}
 
+	/**
+	 * 如果item所在的页面离当前页太远，先把它放起来，等页面滑近时再绑定
+	 * 
+	 * @return true if the item was deferred
+	 */
+	private boolean deferItemIfPageUnbound(ItemInfo item) {
+		if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+				|| mWorkspace == null || mBoundPages.get(item.screen)) {
+			return false;
+		}
+		if (Math.abs(item.screen - mWorkspace.getNextPage()) <= mBoundPageRadius) {
+			bindPage(item.screen);
+			return false;
+		}
+		ArrayList<ItemInfo> items = mUnboundPageItems.get(item.screen);
+		if (items == null) {
+			items = new ArrayList<ItemInfo>();
+			mUnboundPageItems.put(item.screen, items);
+		}
+		items.add(item);
+		return true;
+	}
+
+	/**
+	 * 绑定fromPage到toPage之间以及两侧mBoundPageRadius范围内的页面
+	 */
+	void bindWorkspacePages(int fromPage, int toPage) {
+		if (mWorkspace == null) {
+			return;
+		}
+		final int first = Math.max(0, Math.min(fromPage, toPage)
+				- mBoundPageRadius);
+		final int last = Math.min(mWorkspace.getPageCount() - 1,
+				Math.max(fromPage, toPage) + mBoundPageRadius);
+		for (int i = first; i <= last; i++) {
+			bindPage(i);
+		}
+	}
+
+	/**
+	 * 拖动经过某一页时只绑定这一页
+	 */
+	void bindWorkspacePage(int page) {
+		if (mWorkspace == null) {
+			return;
+		}
+		bindPage(page);
+	}
+
+	private void bindPage(int page) {
+		if (mBoundPages.get(page)) {
+			return;
+		}
+		mBoundPages.put(page, true);
+		final ArrayList<ItemInfo> items = mUnboundPageItems.get(page);
+		if (items == null) {
+			return;
+		}
+		mUnboundPageItems.remove(page);
+
+		final ArrayList<ItemInfo> shortcuts = new ArrayList<ItemInfo>();
+		for (ItemInfo item : items) {
+			if (item instanceof LauncherAppWidgetInfo) {
+				bindAppWidget((LauncherAppWidgetInfo) item);
+			} else {
+				shortcuts.add(item);
+			}
+		}
+		bindItems(shortcuts, 0, shortcuts.size());
+	}
+
+	/**
+	 * 删除还没绑定的页面上属于packages的item，与
+	 * {@link Workspace#removeItems(ArrayList)}的处理一致
+	 */
+	private void removeUnboundItems(ArrayList<String> packages) {
+		final HashSet<String> packageNames = new HashSet<String>(packages);
+		for (int i = 0; i < mUnboundPageItems.size(); i++) {
+			final Iterator<ItemInfo> it = mUnboundPageItems.valueAt(i)
+					.iterator();
+			while (it.hasNext()) {
+				final ItemInfo item = it.next();
+				if (item instanceof ShortcutInfo) {
+					final ComponentName name = ((ShortcutInfo) item).intent
+							.getComponent();
+					if (name != null
+							&& packageNames.contains(name.getPackageName())) {
+						LauncherModel.deleteItemFromDatabase(this, item);
+						it.remove();
+					}
+				} else if (item instanceof FolderInfo) {
+					final FolderInfo info = (FolderInfo) item;
+					final ArrayList<ShortcutInfo> appsToRemoveFromFolder = new ArrayList<ShortcutInfo>();
+					for (ShortcutInfo appInfo : info.contents) {
+						final ComponentName name = appInfo.intent.getComponent();
+						if (name != null
+								&& packageNames.contains(name.getPackageName())) {
+							appsToRemoveFromFolder.add(appInfo);
+						}
+					}
+					for (ShortcutInfo appInfo : appsToRemoveFromFolder) {
+						info.remove(appInfo);
+						LauncherModel.deleteItemFromDatabase(this, appInfo);
+					}
+				} else if (item instanceof LauncherAppWidgetInfo) {
+					final ComponentName provider = ((LauncherAppWidgetInfo) item).providerName;
+					if (provider != null
+							&& packageNames.contains(provider.getPackageName())) {
+						LauncherModel.deleteItemFromDatabase(this, item);
+						it.remove();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 更新还没绑定的页面上的快捷方式，页面绑定时会用新的图标和标题创建View，
+	 * 与{@link Workspace#updateShortcuts(ArrayList)}的处理一致
+	 */
+	private void updateUnboundShortcuts(ArrayList<ApplicationInfo> apps) {
+		for (int i = 0; i < mUnboundPageItems.size(); i++) {
+			for (ItemInfo item : mUnboundPageItems.valueAt(i)) {
+				if (!(item instanceof ShortcutInfo)) {
+					continue;
+				}
+				final ShortcutInfo info = (ShortcutInfo) item;
+				final Intent intent = info.intent;
+				final ComponentName name = intent.getComponent();
+				if (info.itemType != LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+						|| !Intent.ACTION_MAIN.equals(intent.getAction())
+						|| name == null) {
+					continue;
+				}
+				for (ApplicationInfo app : apps) {
+					if (app.componentName.equals(name)) {
+						info.updateIcon(mIconCache);
+						info.title = app.title.toString();
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * 添加shortcuts中指定部分的item到桌面
 	 * 
@@ -3744,6 +3921,9 @@ public final class Launcher extends Activity implements View.OnClickListener,
 					&& mHotseat == null) {
 				continue;
 			}
+			if (deferItemIfPageUnbound(item)) {
+				continue;
+			}
 
 			switch (item.itemType) {
 			case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
@@ -3784,6 +3964,63 @@ public final class Launcher extends Activity implements View.OnClickListener,
 		workspace.requestLayout();
 	}
 
+	/**
+	 * 收藏数据被外部修改后增量添加的item，文件夹里的item直接加到文件夹中。继承自LauncherModel.Callbacks.
+	 */
+	public void bindItemsAdded(ArrayList<ItemInfo> items) {
+		setLoadOnResume();
+
+		final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+		for (ItemInfo item : items) {
+			if (item instanceof FolderInfo) {
+				sFolders.put(item.id, (FolderInfo) item);
+			}
+		}
+		for (ItemInfo item : items) {
+			if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+					|| item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+				workspaceItems.add(item);
+			} else if (item instanceof ShortcutInfo) {
+				final FolderInfo folder = sFolders.get(item.container);
+				if (folder != null) {
+					folder.add((ShortcutInfo) item);
+				}
+			}
+		}
+		bindItems(workspaceItems, 0, workspaceItems.size());
+	}
+
+	/**
+	 * 收藏数据被外部修改后增量删除的item。继承自LauncherModel.Callbacks.
+	 */
+	public void bindItemsRemoved(ArrayList<ItemInfo> items) {
+		setLoadOnResume();
+
+		final ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
+		for (ItemInfo item : items) {
+			if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+					|| item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+				workspaceItems.add(item);
+				final ArrayList<ItemInfo> unbound = mUnboundPageItems
+						.get(item.screen);
+				if (unbound != null) {
+					unbound.remove(item);
+				}
+				if (item instanceof FolderInfo) {
+					removeFolder((FolderInfo) item);
+				} else if (item instanceof LauncherAppWidgetInfo) {
+					removeAppWidget((LauncherAppWidgetInfo) item);
+				}
+			} else if (item instanceof ShortcutInfo) {
+				final FolderInfo folder = sFolders.get(item.container);
+				if (folder != null) {
+					folder.remove((ShortcutInfo) item);
+				}
+			}
+		}
+		mWorkspace.removeItemViews(workspaceItems);
+	}
+
 	/**
 	 * 添加folder，但是并不添加到桌面上，添加到桌面是在bindItems上。继承自LauncherModel.Callbacks.
 	 */
@@ -3798,6 +4035,9 @@ public final class Launcher extends Activity implements View.OnClickListener,
 	 */
 	public void bindAppWidget(LauncherAppWidgetInfo item) {
 		setLoadOnResume();
+		if (deferItemIfPageUnbound(item)) {
+			return;
+		}
 
 		final long start = DEBUG_WIDGETS ? SystemClock.uptimeMillis() : 0;
 		if (DEBUG_WIDGETS) {
@@ -4054,6 +4294,8 @@ public final class Launcher extends Activity implements View.OnClickListener,
 		if (mWorkspace != null) {
 			mWorkspace.updateShortcuts(apps);
 		}
+		// 还没绑定的页面上没有View，直接更新放起来的ItemInfo
+		updateUnboundShortcuts(apps);
 
 		if (mAppsCustomizeContent != null) {
 			mAppsCustomizeContent.updateApps(apps);
@@ -4068,6 +4310,8 @@ public final class Launcher extends Activity implements View.OnClickListener,
 	public void bindAppsRemoved(ArrayList<String> packageNames,
 			boolean permanent) {
 		if (permanent) {
+			// 还没绑定的页面没有View，直接从mUnboundPageItems里删
+			removeUnboundItems(packageNames);
 			mWorkspace.removeItems(packageNames);
 		}
 
@@ -4366,6 +4610,10 @@ public final class Launcher extends Activity implements View.OnClickListener,
 		for (int i = 0; i < sDumpLogs.size(); i++) {
 			writer.println("  " + sDumpLogs.get(i));
 		}
+		if (mAppsCustomizeContent != null) {
+			writer.println(" ");
+			mAppsCustomizeContent.dumpPageSyncStats("  ", writer);
+		}
 	}
 
 	public static void dumpDebugLogsToConsole() {
@@ -36,6 +36,8 @@ import java.lang.ref.WeakReference;
 public class LauncherApplication extends Application {
 	public LauncherModel mModel;
 	public IconCache mIconCache;
+	private WidgetPreviewCache mWidgetPreviewCache;
+	private PreviewBitmapCache mPreviewBitmapCache;
 	private static boolean sIsScreenLarge;
 	private static float sScreenDensity;
 	private static int sLongPressTimeout = 300;
@@ -52,6 +54,8 @@ public class LauncherApplication extends Application {
 		sScreenDensity = getResources().getDisplayMetrics().density;
 
 		mIconCache = new IconCache(this);
+		mWidgetPreviewCache = new WidgetPreviewCache(this);
+		mPreviewBitmapCache = new PreviewBitmapCache(this);
 		mModel = new LauncherModel(this, mIconCache);
 
 		// Register intent receivers
@@ -103,11 +107,9 @@ public class LauncherApplication extends Application {
 			new Handler()) {
 		@Override
 		public void onChange(boolean selfChange) {
-			// If the database has ever changed, then we really need to force a
-			// reload of the
-			// workspace on the next load
-			mModel.resetLoadedState(false, true);
-			mModel.startLoaderFromBackground();
+			// Applies the recorded row changes, falls back to reloading the
+			// workspace when they can't be applied in place
+			mModel.onFavoritesChanged();
 		}
 	};
 
@@ -120,6 +122,14 @@ public class LauncherApplication extends Application {
 		return mIconCache;
 	}
 
+	WidgetPreviewCache getWidgetPreviewCache() {
+		return mWidgetPreviewCache;
+	}
+
+	PreviewBitmapCache getPreviewBitmapCache() {
+		return mPreviewBitmapCache;
+	}
+
 	LauncherModel getModel() {
 		return mModel;
 	}
@@ -22,11 +22,13 @@ import android.appwidget.AppWidgetProviderInfo;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Intent.ShortcutIconResource;
+import android.content.OperationApplicationException;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -39,8 +41,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Environment;
-import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Parcelable;
 import android.os.Process;
 import android.os.RemoteException;
@@ -52,6 +53,7 @@ import com.android.launcher2.InstallWidgetReceiver.WidgetMimeTypeHandlerData;
 
 import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -59,8 +61,20 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Launcher里面的数据，以及处理数据操作
@@ -73,6 +87,18 @@ public class LauncherModel extends BroadcastReceiver {
      * bindItems()，每次bind数量6,应该是为了防止一次加载太多卡界面。分批放到队列里面执行
      */
     private static final int ITEMS_CHUNK = 6;
+    /**
+     * item更新合并写入数据库之前等待的时间
+     */
+    private static final int ITEM_UPDATES_FLUSH_DELAY = 100;
+    /**
+     * loadWorkspace()检查占用时hotseat使用的键，普通屏幕用screen本身作键
+     */
+    private static final int HOTSEAT_OCCUPIED_KEY = -1;
+    /**
+     * 是否在每次更新数据库时记录调用栈，用于定位model不一致的问题
+     */
+    static final boolean DEBUG_DB_STACK_TRACES = false;
     /**
      * !Environment.isExternalStorageEmulated()。？？？
      */
@@ -96,13 +122,33 @@ public class LauncherModel extends BroadcastReceiver {
     private static final int MAIN_THREAD_NORMAL_RUNNABLE = 0;// 从来没用过
     private static final int MAIN_THREAD_BINDING_RUNNABLE = 1;
 
-    private static final HandlerThread sWorkerThread = new HandlerThread(
-            "launcher-loader");
-    static {
-        sWorkerThread.start();
-    }
-    private static final Handler sWorker = new Handler(
-            sWorkerThread.getLooper());
+    /**
+     * 后台工作分在三条通道上，互不阻塞：加载桌面和所有程序、数据库写入（保持提交顺序）、
+     * 包变化处理。sBg*仍然只在sBgLock下修改；加载桌面时会暂停数据库通道
+     */
+    private static final ExecutionLane sLoaderLane = new ExecutionLane(
+            "launcher-loader", Process.THREAD_PRIORITY_DEFAULT);
+    private static final ExecutionLane sDbLane = new ExecutionLane(
+            "launcher-db", Process.THREAD_PRIORITY_DEFAULT);
+    private static final ExecutionLane sPackageLane = new ExecutionLane(
+            "launcher-packages", Process.THREAD_PRIORITY_BACKGROUND);
+
+    /**
+     * loadAllAppsByBatch()中并发构建ApplicationInfo（标题、图标）的线程池，大小为CPU核数
+     */
+    private static final int APP_RESOLVER_THREADS = Math.max(1, Runtime
+            .getRuntime().availableProcessors());
+    private static final ExecutorService sAppInfoResolver = Executors
+            .newFixedThreadPool(APP_RESOLVER_THREADS, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger(1);
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "launcher-app-resolver-"
+                            + mCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     // We start off with everything not loaded. After that, we assume that
     // our monitoring of the package manager provides all updates and we never
@@ -123,15 +169,20 @@ public class LauncherModel extends BroadcastReceiver {
 
     private WeakReference<Callbacks> mCallbacks;
 
-    // < only access in worker thread >
+    // < only access with mAllAppsListLock held: the loader lane and the
+    // package lane both change it >
     private AllAppsList mBgAllAppsList;
+    private final Object mAllAppsListLock = new Object();
+    // Packages removed since the loader queried the activities, the loader
+    // must not add them back from its stale list
+    private final HashSet<String> mPackagesRemovedDuringLoad = new HashSet<String>();
 
     // The lock that must be acquired before referencing any static bg data
     // structures. Unlike
     // other locks, this one can generally be held long-term because we never
     // expect any of these
-    // static data structures to be referenced outside of the worker thread
-    // except on the first
+    // static data structures to be referenced outside of the loader and
+    // database lanes except on the first
     // load after configuration change.
     static final Object sBgLock = new Object();
 
@@ -161,6 +212,42 @@ public class LauncherModel extends BroadcastReceiver {
     static final HashMap<Object, byte[]> sBgDbIconCache = new HashMap<Object, byte[]>();
     // </ only access in worker thread >
 
+    /**
+     * 上面几个sBg*集合的只读快照。写入者在sBgLock下修改完之后只把快照标记为过期，
+     * 写入之后的第一次读取才在sBgLock下复制一次，之后的读取只拿这个引用，不需要加锁。
+     * 快照里的集合不可修改，ItemInfo对象本身仍与模型共享
+     */
+    static final class ModelSnapshot {
+        final long version;
+        final List<ItemInfo> workspaceItems;
+        final List<LauncherAppWidgetInfo> appWidgets;
+        final Map<Long, FolderInfo> folders;
+        final Map<Long, ItemInfo> itemsIdMap;
+
+        ModelSnapshot(long version, List<ItemInfo> workspaceItems,
+                List<LauncherAppWidgetInfo> appWidgets,
+                Map<Long, FolderInfo> folders, Map<Long, ItemInfo> itemsIdMap) {
+            this.version = version;
+            this.workspaceItems = Collections.unmodifiableList(workspaceItems);
+            this.appWidgets = Collections.unmodifiableList(appWidgets);
+            this.folders = Collections.unmodifiableMap(folders);
+            this.itemsIdMap = Collections.unmodifiableMap(itemsIdMap);
+        }
+    }
+
+    private static volatile ModelSnapshot sBgSnapshot = new ModelSnapshot(0,
+            new ArrayList<ItemInfo>(),
+            new ArrayList<LauncherAppWidgetInfo>(),
+            new HashMap<Long, FolderInfo>(), new HashMap<Long, ItemInfo>());
+    // Set by the writers under sBgLock, the snapshot is rebuilt on the next
+    // read
+    private static volatile boolean sBgSnapshotStale;
+
+    // How often and how long sBgLock is held by the writers
+    private static final AtomicLong sBgLockHolds = new AtomicLong();
+    private static final AtomicLong sBgLockHoldNanos = new AtomicLong();
+    private static final AtomicLong sBgLockMaxHoldNanos = new AtomicLong();
+
     private IconCache mIconCache;
     private Bitmap mDefaultIcon;
 
@@ -184,6 +271,10 @@ public class LauncherModel extends BroadcastReceiver {
 
         public void bindAppWidget(LauncherAppWidgetInfo info);
 
+        public void bindItemsAdded(ArrayList<ItemInfo> items);
+
+        public void bindItemsRemoved(ArrayList<ItemInfo> items);
+
         public void bindAllApplications(ArrayList<ApplicationInfo> apps);
 
         public void bindAppsAdded(ArrayList<ApplicationInfo> apps);
@@ -217,6 +308,7 @@ public class LauncherModel extends BroadcastReceiver {
         mAllAppsLoadDelay = res
                 .getInteger(R.integer.config_allAppsBatchLoadDelay);
         mBatchSize = res.getInteger(R.integer.config_allAppsBatchSize);
+        mHandler.setFrameBudget(res.getInteger(R.integer.config_bindFrameBudget));
         Configuration config = res.getConfiguration();
         mPreviousConfigMcc = config.mcc;
     }
@@ -230,8 +322,8 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     private void runOnMainThread(Runnable r, int type) {
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
-            // If we are on the worker thread, post onto the main handler
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            // If we are on a background lane, post onto the main handler
             mHandler.post(r);
         } else {
             r.run();
@@ -239,17 +331,12 @@ public class LauncherModel extends BroadcastReceiver {
     }
 
     /**
-     * Runs the specified runnable immediately if called from the worker thread,
-     * otherwise it is posted on the worker thread handler.
+     * Runs the specified runnable immediately if called from the database
+     * lane, otherwise it is posted on that lane. Database writes and the model
+     * changes that go with them run there in order.
      */
     private static void runOnWorkerThread(Runnable r) {
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
-            r.run();
-        } else {
-            // If we are not on the worker thread, then post to the worker
-            // handler
-            sWorker.post(r);
-        }
+        sDbLane.execute(r);
     }
 
     public Bitmap getFallbackIcon() {
@@ -262,7 +349,7 @@ public class LauncherModel extends BroadcastReceiver {
      * orientation change.
      */
     public void unbindItemInfosAndClearQueuedBindRunnables() {
-        if (sWorkerThread.getThreadId() == Process.myTid()) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
             throw new RuntimeException(
                     "Expected unbindLauncherItemInfos() to be called from the "
                             + "main thread");
@@ -281,12 +368,9 @@ public class LauncherModel extends BroadcastReceiver {
         // Ensure that we don't use the same workspace items data structure on
         // the main thread
         // by making a copy of workspace items first.
-        final ArrayList<ItemInfo> tmpWorkspaceItems = new ArrayList<ItemInfo>();
-        final ArrayList<ItemInfo> tmpAppWidgets = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            tmpWorkspaceItems.addAll(sBgWorkspaceItems);
-            tmpAppWidgets.addAll(sBgAppWidgets);
-        }
+        final ModelSnapshot snapshot = getModelSnapshot();
+        final List<ItemInfo> tmpWorkspaceItems = snapshot.workspaceItems;
+        final List<LauncherAppWidgetInfo> tmpAppWidgets = snapshot.appWidgets;
         Runnable r = new Runnable() {
             @Override
             public void run() {
@@ -374,64 +458,235 @@ public class LauncherModel extends BroadcastReceiver {
         runOnWorkerThread(r);
     }
 
+    /**
+     * 等待写入数据库的item更新。同一个item的多次更新在这里合并，
+     * 短暂延时后（或者Launcher onPause时）在一次applyBatch中写入
+     */
+    private static final LinkedHashMap<Long, PendingItemUpdate> sPendingItemUpdates = new LinkedHashMap<Long, PendingItemUpdate>();
+    private static ContentResolver sPendingUpdatesResolver;
+    private static boolean sPendingUpdatesFlushScheduled;
+
+    private static class PendingItemUpdate {
+        ItemInfo item;
+        final ContentValues values = new ContentValues();
+        StackTraceElement[] stackTrace;
+    }
+
+    private static final Runnable sFlushPendingItemUpdates = new Runnable() {
+        public void run() {
+            flushPendingItemUpdates();
+        }
+    };
+
     static void updateItemInDatabaseHelper(Context context,
             final ContentValues values, final ItemInfo item,
             final String callingFunction) {
-        final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId, false);
-        final ContentResolver cr = context.getContentResolver();
+        // Capturing a stack trace on every drag is expensive, only do it
+        // when debugging the model consistency checks.
+        final StackTraceElement[] stackTrace = DEBUG_DB_STACK_TRACES ? new Throwable()
+                .getStackTrace() : null;
+        synchronized (sPendingItemUpdates) {
+            PendingItemUpdate pending = sPendingItemUpdates.get(item.id);
+            if (pending == null) {
+                pending = new PendingItemUpdate();
+                sPendingItemUpdates.put(item.id, pending);
+            }
+            pending.item = item;
+            pending.values.putAll(values);
+            pending.stackTrace = stackTrace;
+            sPendingUpdatesResolver = context.getApplicationContext()
+                    .getContentResolver();
+            if (!sPendingUpdatesFlushScheduled) {
+                sPendingUpdatesFlushScheduled = true;
+                sDbLane.postDelayed(sFlushPendingItemUpdates,
+                        ITEM_UPDATES_FLUSH_DELAY);
+            }
+        }
+    }
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        Runnable r = new Runnable() {
-            public void run() {
-                cr.update(uri, values, null, null);
+    /**
+     * 立即（在worker线程上）写入所有等待中的item更新，在onPause时调用
+     */
+    static void flushPendingItemUpdatesSoon() {
+        synchronized (sPendingItemUpdates) {
+            if (sPendingItemUpdates.isEmpty()) {
+                return;
+            }
+            sDbLane.removeCallbacks(sFlushPendingItemUpdates);
+            sPendingUpdatesFlushScheduled = true;
+        }
+        runOnWorkerThread(sFlushPendingItemUpdates);
+    }
 
-                // Lock on mBgLock *after* the db operation
-                synchronized (sBgLock) {
-                    checkItemInfoLocked(itemId, item, stackTrace);
+    /**
+     * Writes all pending item updates in one batch. Must be called on the
+     * database lane (or by the loader while it holds that lane paused), and is
+     * also called before any other database write so
+     * that writes reach the database in the order they were requested.
+     */
+    static void flushPendingItemUpdates() {
+        final ArrayList<PendingItemUpdate> updates;
+        final ContentResolver cr;
+        synchronized (sPendingItemUpdates) {
+            sDbLane.removeCallbacks(sFlushPendingItemUpdates);
+            sPendingUpdatesFlushScheduled = false;
+            if (sPendingItemUpdates.isEmpty()) {
+                return;
+            }
+            updates = new ArrayList<PendingItemUpdate>(
+                    sPendingItemUpdates.values());
+            sPendingItemUpdates.clear();
+            cr = sPendingUpdatesResolver;
+        }
 
-                    if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
-                            && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                        // Item is in a folder, make sure this folder exists
-                        if (!sBgFolders.containsKey(item.container)) {
-                            // An items container is being set to a that of an
-                            // item which is not in
-                            // the list of Folders.
-                            String msg = "item: " + item
-                                    + " container being set to: "
-                                    + item.container
-                                    + ", not in the list of folders";
-                            Log.e(TAG, msg);
-                            Launcher.dumpDebugLogsToConsole();
-                        }
-                    }
+        final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
+                updates.size());
+        for (PendingItemUpdate update : updates) {
+            ops.add(ContentProviderOperation
+                    .newUpdate(
+                            LauncherSettings.Favorites.getContentUri(
+                                    update.item.id, false))
+                    .withValues(update.values).build());
+        }
+        try {
+            cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not write " + ops.size() + " item updates", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Could not write " + ops.size() + " item updates", e);
+        }
 
-                    // Items are added/removed from the corresponding FolderInfo
-                    // elsewhere, such
-                    // as in Workspace.onDrop. Here, we just add/remove them
-                    // from the list of items
-                    // that are on the desktop, as appropriate
-                    ItemInfo modelItem = sBgItemsIdMap.get(itemId);
-                    if (modelItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
-                            || modelItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                        switch (modelItem.itemType) {
-                            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
-                            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
-                            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
-                                if (!sBgWorkspaceItems.contains(modelItem)) {
-                                    sBgWorkspaceItems.add(modelItem);
-                                }
-                                break;
-                            default:
-                                break;
-                        }
-                    } else {
-                        sBgWorkspaceItems.remove(modelItem);
-                    }
+        // Lock on mBgLock *after* the db operation
+        synchronized (sBgLock) {
+            final long lockStart = System.nanoTime();
+            for (PendingItemUpdate update : updates) {
+                updateItemInModelLocked(update.item.id, update.item,
+                        update.stackTrace);
+            }
+            endBgWriteLocked(lockStart);
+        }
+    }
+
+    /**
+     * 之后才加到桌面上的项也要钉住图标，整个集合在bindWorkspace时重建
+     */
+    private static void pinWorkspaceIcon(IconCache iconCache, ItemInfo item) {
+        if (item instanceof ShortcutInfo) {
+            Intent intent = ((ShortcutInfo) item).intent;
+            if (intent != null && intent.getComponent() != null) {
+                iconCache.pinComponent(IconCache.PIN_WORKSPACE, intent.getComponent());
+            }
+        }
+    }
+
+    /**
+     * 桌面上的项被删除后，如果已经没有别的项使用同一个组件，取消图标的钉住。
+     * 在item从sBgItemsIdMap中移除之后调用
+     */
+    private static void unpinWorkspaceIconLocked(IconCache iconCache, ItemInfo item) {
+        if (!(item instanceof ShortcutInfo)) {
+            return;
+        }
+        final Intent intent = ((ShortcutInfo) item).intent;
+        final ComponentName component = intent != null ? intent.getComponent() : null;
+        if (component == null) {
+            return;
+        }
+        for (ItemInfo info : sBgItemsIdMap.values()) {
+            if (info instanceof ShortcutInfo) {
+                final Intent other = ((ShortcutInfo) info).intent;
+                if (other != null && component.equals(other.getComponent())) {
+                    return;
                 }
             }
-        };
-        runOnWorkerThread(r);
+        }
+        iconCache.unpinComponent(IconCache.PIN_WORKSPACE, component);
+    }
+
+    /**
+     * Returns the current model snapshot. Only the first read after a write
+     * takes sBgLock to copy the collections, later reads don't lock.
+     */
+    static ModelSnapshot getModelSnapshot() {
+        if (sBgSnapshotStale) {
+            synchronized (sBgLock) {
+                if (sBgSnapshotStale) {
+                    sBgSnapshot = new ModelSnapshot(sBgSnapshot.version + 1,
+                            new ArrayList<ItemInfo>(sBgWorkspaceItems),
+                            new ArrayList<LauncherAppWidgetInfo>(sBgAppWidgets),
+                            new HashMap<Long, FolderInfo>(sBgFolders),
+                            new HashMap<Long, ItemInfo>(sBgItemsIdMap));
+                    sBgSnapshotStale = false;
+                }
+            }
+        }
+        return sBgSnapshot;
+    }
+
+    private static void invalidateSnapshotLocked() {
+        sBgSnapshotStale = true;
+    }
+
+    /**
+     * Called by the writers at the end of their sBgLock section: marks the
+     * snapshot stale and accounts the time the lock was held.
+     */
+    private static void endBgWriteLocked(long lockStart) {
+        invalidateSnapshotLocked();
+        recordBgLockHold(lockStart);
+    }
+
+    private static void recordBgLockHold(long lockStart) {
+        final long held = System.nanoTime() - lockStart;
+        sBgLockHolds.incrementAndGet();
+        sBgLockHoldNanos.addAndGet(held);
+        long max;
+        while ((max = sBgLockMaxHoldNanos.get()) < held
+                && !sBgLockMaxHoldNanos.compareAndSet(max, held)) {
+            // Retry
+        }
+    }
+
+    private static void updateItemInModelLocked(final long itemId,
+            final ItemInfo item, StackTraceElement[] stackTrace) {
+        checkItemInfoLocked(itemId, item, stackTrace);
+
+        if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            // Item is in a folder, make sure this folder exists
+            if (!sBgFolders.containsKey(item.container)) {
+                // An items container is being set to a that of an
+                // item which is not in
+                // the list of Folders.
+                String msg = "item: " + item + " container being set to: "
+                        + item.container + ", not in the list of folders";
+                Log.e(TAG, msg);
+                Launcher.dumpDebugLogsToConsole();
+            }
+        }
+
+        // Items are added/removed from the corresponding FolderInfo
+        // elsewhere, such
+        // as in Workspace.onDrop. Here, we just add/remove them
+        // from the list of items
+        // that are on the desktop, as appropriate
+        ItemInfo modelItem = sBgItemsIdMap.get(itemId);
+        if (modelItem.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                || modelItem.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            switch (modelItem.itemType) {
+                case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                    if (!sBgWorkspaceItems.contains(modelItem)) {
+                        sBgWorkspaceItems.add(modelItem);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } else {
+            sBgWorkspaceItems.remove(modelItem);
+        }
     }
 
     /**
@@ -688,9 +943,11 @@ public class LauncherModel extends BroadcastReceiver {
         item.id = app.getLauncherProvider().generateNewId();
         values.put(LauncherSettings.Favorites._ID, item.id);
         item.updateValuesWithCoordinates(values, item.cellX, item.cellY);
+        pinWorkspaceIcon(app.getIconCache(), item);
 
         Runnable r = new Runnable() {
             public void run() {
+                flushPendingItemUpdates();
                 String transaction = "DbDebug    Add item (" + item.title
                         + ") to db, id: " + item.id + " (" + container + ", "
                         + screen + ", " + cellX + ", " + cellY + ")";
@@ -704,6 +961,7 @@ public class LauncherModel extends BroadcastReceiver {
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
+                    final long lockStart = System.nanoTime();
                     checkItemInfoLocked(item.id, item, null);
                     sBgItemsIdMap.put(item.id, item);
                     switch (item.itemType) {
@@ -731,6 +989,7 @@ public class LauncherModel extends BroadcastReceiver {
                             sBgAppWidgets.add((LauncherAppWidgetInfo) item);
                             break;
                     }
+                    endBgWriteLocked(lockStart);
                 }
             }
         };
@@ -774,11 +1033,14 @@ public class LauncherModel extends BroadcastReceiver {
      */
     static void deleteItemFromDatabase(Context context, final ItemInfo item) {
         final ContentResolver cr = context.getContentResolver();
+        final IconCache iconCache = ((LauncherApplication) context
+                .getApplicationContext()).getIconCache();
         final Uri uriToDelete = LauncherSettings.Favorites.getContentUri(
                 item.id, false);
 
         Runnable r = new Runnable() {
             public void run() {
+                flushPendingItemUpdates();
                 String transaction = "DbDebug    Delete item (" + item.title
                         + ") from db, id: " + item.id + " (" + item.container
                         + ", " + item.screen + ", " + item.cellX + ", "
@@ -790,6 +1052,7 @@ public class LauncherModel extends BroadcastReceiver {
 
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
+                    final long lockStart = System.nanoTime();
                     switch (item.itemType) {
                         case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
                             sBgFolders.remove(item.id);
@@ -818,6 +1081,8 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                     sBgItemsIdMap.remove(item.id);
                     sBgDbIconCache.remove(item);
+                    unpinWorkspaceIconLocked(iconCache, item);
+                    endBgWriteLocked(lockStart);
                 }
             }
         };
@@ -830,29 +1095,46 @@ public class LauncherModel extends BroadcastReceiver {
     static void deleteFolderContentsFromDatabase(Context context,
             final FolderInfo info) {
         final ContentResolver cr = context.getContentResolver();
+        final IconCache iconCache = ((LauncherApplication) context
+                .getApplicationContext()).getIconCache();
 
         Runnable r = new Runnable() {
             public void run() {
-                cr.delete(LauncherSettings.Favorites.getContentUri(info.id,
-                        false), null, null);
+                flushPendingItemUpdates();
+                // 文件夹和其内容在同一个事务里删除
+                final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
+                        2);
+                ops.add(ContentProviderOperation.newDelete(
+                        LauncherSettings.Favorites.getContentUri(info.id, false))
+                        .build());
+                ops.add(ContentProviderOperation
+                        .newDelete(
+                                LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION)
+                        .withSelection(
+                                LauncherSettings.Favorites.CONTAINER + "="
+                                        + info.id, null).build());
+                try {
+                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "Could not delete folder " + info.id, e);
+                } catch (OperationApplicationException e) {
+                    Log.e(TAG, "Could not delete folder " + info.id, e);
+                }
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
+                    final long lockStart = System.nanoTime();
                     sBgItemsIdMap.remove(info.id);
                     sBgFolders.remove(info.id);
                     sBgDbIconCache.remove(info);
                     sBgWorkspaceItems.remove(info);
-                }
-
-                cr.delete(
-                        LauncherSettings.Favorites.CONTENT_URI_NO_NOTIFICATION,
-                        LauncherSettings.Favorites.CONTAINER + "=" + info.id,
-                        null);
-                // Lock on mBgLock *after* the db operation
-                synchronized (sBgLock) {
                     for (ItemInfo childInfo : info.contents) {
                         sBgItemsIdMap.remove(childInfo.id);
                         sBgDbIconCache.remove(childInfo);
                     }
+                    for (ItemInfo childInfo : info.contents) {
+                        unpinWorkspaceIconLocked(iconCache, childInfo);
+                    }
+                    endBgWriteLocked(lockStart);
                 }
             }
         };
@@ -911,10 +1193,7 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             if (op != PackageUpdatedTask.OP_NONE) {
-                enqueuePackageUpdated(new PackageUpdatedTask(op,
-                        new String[] {
-                                packageName
-                        }));
+                schedulePackageUpdate(op, packageName);
             }
 
         } else if (Intent.ACTION_EXTERNAL_APPLICATIONS_AVAILABLE.equals(action)) {
@@ -1013,6 +1292,353 @@ public class LauncherModel extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Called when the favorites changed outside of the launcher. The row level
+     * changes recorded by the provider are applied to the model and only the
+     * affected items are rebound. The workspace is reloaded only when the
+     * change log overflowed or holds a change that can't be applied in place.
+     */
+    void onFavoritesChanged() {
+        runOnWorkerThread(new Runnable() {
+            public void run() {
+                final LauncherProvider provider = mApp.getLauncherProvider();
+                final ArrayList<LauncherProvider.FavoritesChange> changes = provider != null ? provider
+                        .drainFavoritesChanges() : null;
+                final boolean workspaceLoaded;
+                synchronized (mLock) {
+                    workspaceLoaded = mWorkspaceLoaded;
+                }
+                if (changes != null && workspaceLoaded
+                        && applyFavoritesChanges(changes)) {
+                    return;
+                }
+                runOnMainThread(new Runnable() {
+                    public void run() {
+                        // If the database has ever changed, then we really need
+                        // to force a reload of the workspace on the next load
+                        resetLoadedState(false, true);
+                        startLoaderFromBackground();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 把收藏表的行级改动应用到sBg*中，并只绑定受影响的item。
+     * 返回false表示无法增量处理，需要重新加载
+     */
+    private boolean applyFavoritesChanges(
+            ArrayList<LauncherProvider.FavoritesChange> changes) {
+        if (changes.isEmpty()) {
+            return true;
+        }
+        flushPendingItemUpdates();
+
+        // Ids only inserted (and possibly by us, with notify) vs. ids whose
+        // row has to be re-read
+        final HashSet<Long> changedIds = new HashSet<Long>();
+        final HashSet<Long> updatedIds = new HashSet<Long>();
+        for (LauncherProvider.FavoritesChange change : changes) {
+            changedIds.add(change.id);
+            if (change.op != LauncherProvider.FavoritesChange.INSERTED) {
+                updatedIds.add(change.id);
+            }
+        }
+
+        // Read the current rows, a missing row means it was deleted
+        final HashMap<Long, ItemInfo> rows = new HashMap<Long, ItemInfo>();
+        final StringBuilder where = new StringBuilder(
+                LauncherSettings.Favorites._ID).append(" IN (");
+        boolean first = true;
+        for (long id : changedIds) {
+            if (!first) {
+                where.append(',');
+            }
+            where.append(id);
+            first = false;
+        }
+        where.append(')');
+        final Cursor c = mApp.getContentResolver().query(
+                LauncherSettings.Favorites.CONTENT_URI, null, where.toString(),
+                null, null);
+        if (c == null) {
+            return false;
+        }
+        try {
+            while (c.moveToNext()) {
+                final ItemInfo item = createItemInfo(c);
+                if (item == null) {
+                    return false;
+                }
+                rows.put(item.id, item);
+            }
+        } finally {
+            c.close();
+        }
+
+        final ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>();
+        final ArrayList<ItemInfo> added = new ArrayList<ItemInfo>();
+        final ArrayList<LauncherAppWidgetInfo> addedWidgets = new ArrayList<LauncherAppWidgetInfo>();
+        synchronized (sBgLock) {
+            final long lockStart = System.nanoTime();
+            for (long id : changedIds) {
+                final ItemInfo existing = sBgItemsIdMap.get(id);
+                final ItemInfo row = rows.get(id);
+                if (existing != null && row != null && !updatedIds.contains(id)) {
+                    // Our own insert, the model already has it
+                    continue;
+                }
+                if (existing != null
+                        && row != null
+                        && (existing.itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER
+                                || existing.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET)) {
+                    // Folders own their contents and widgets their host views
+                    recordBgLockHold(lockStart);
+                    return false;
+                }
+                if (existing != null) {
+                    removed.add(existing);
+                }
+                if (row instanceof LauncherAppWidgetInfo) {
+                    addedWidgets.add((LauncherAppWidgetInfo) row);
+                } else if (row != null) {
+                    added.add(row);
+                }
+            }
+            // Folders first, so that items added to them can find them
+            Collections.sort(added, new Comparator<ItemInfo>() {
+                public int compare(ItemInfo a, ItemInfo b) {
+                    final boolean aFolder = a instanceof FolderInfo;
+                    final boolean bFolder = b instanceof FolderInfo;
+                    return aFolder == bFolder ? 0 : (aFolder ? -1 : 1);
+                }
+            });
+
+            // Validate everything against the model as it will be once the
+            // removed items are gone, before touching it: a failure falls
+            // back to a reload and must leave the model as it was
+            final HashSet<Long> removedIds = new HashSet<Long>();
+            for (ItemInfo item : removed) {
+                removedIds.add(item.id);
+            }
+            final HashSet<Long> addedFolderIds = new HashSet<Long>();
+            for (ItemInfo item : added) {
+                if (item instanceof FolderInfo) {
+                    addedFolderIds.add(item.id);
+                }
+            }
+            for (ItemInfo item : added) {
+                if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                        && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT
+                        && !addedFolderIds.contains(item.container)
+                        && (!sBgFolders.containsKey(item.container)
+                                || removedIds.contains(item.container))) {
+                    recordBgLockHold(lockStart);
+                    return false;
+                }
+                if (!isPlacementFreeLocked(item, removedIds)) {
+                    recordBgLockHold(lockStart);
+                    return false;
+                }
+            }
+            for (ItemInfo item : addedWidgets) {
+                if (!isPlacementFreeLocked(item, removedIds)) {
+                    recordBgLockHold(lockStart);
+                    return false;
+                }
+            }
+
+            for (ItemInfo item : removed) {
+                removeItemFromModelLocked(item);
+            }
+            // Before the additions, which pin their icons again
+            for (ItemInfo item : removed) {
+                unpinWorkspaceIconLocked(mIconCache, item);
+            }
+            for (ItemInfo item : added) {
+                sBgItemsIdMap.put(item.id, item);
+                pinWorkspaceIcon(mIconCache, item);
+                if (item instanceof FolderInfo) {
+                    sBgFolders.put(item.id, (FolderInfo) item);
+                }
+                if (item.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                        || item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                    sBgWorkspaceItems.add(item);
+                }
+            }
+            for (LauncherAppWidgetInfo widget : addedWidgets) {
+                sBgItemsIdMap.put(widget.id, widget);
+                sBgAppWidgets.add(widget);
+            }
+            endBgWriteLocked(lockStart);
+        }
+
+        final Callbacks callbacks = mCallbacks != null ? mCallbacks.get() : null;
+        if (callbacks == null) {
+            return true;
+        }
+        if (!removed.isEmpty()) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
+                    if (callbacks == cb && cb != null) {
+                        callbacks.bindItemsRemoved(removed);
+                    }
+                }
+            });
+        }
+        if (!added.isEmpty()) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
+                    if (callbacks == cb && cb != null) {
+                        callbacks.bindItemsAdded(added);
+                    }
+                }
+            });
+        }
+        for (final LauncherAppWidgetInfo widget : addedWidgets) {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    Callbacks cb = mCallbacks != null ? mCallbacks.get() : null;
+                    if (callbacks == cb && cb != null) {
+                        callbacks.bindAppWidget(widget);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    private static void removeItemFromModelLocked(ItemInfo item) {
+        switch (item.itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                sBgFolders.remove(item.id);
+                sBgWorkspaceItems.remove(item);
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                sBgWorkspaceItems.remove(item);
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                sBgAppWidgets.remove((LauncherAppWidgetInfo) item);
+                break;
+        }
+        sBgItemsIdMap.remove(item.id);
+        sBgDbIconCache.remove(item);
+    }
+
+    /**
+     * Same rule as the loader's checkItemPlacement(), against what the model
+     * already holds apart from the items in ignoredIds.
+     */
+    private static boolean isPlacementFreeLocked(ItemInfo item, Set<Long> ignoredIds) {
+        if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            return true;
+        }
+        for (ItemInfo other : sBgItemsIdMap.values()) {
+            if (other.id == item.id || other.container != item.container
+                    || other.screen != item.screen || ignoredIds.contains(other.id)) {
+                continue;
+            }
+            if (item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                return false;
+            }
+            if (item.cellX < other.cellX + other.spanX
+                    && other.cellX < item.cellX + item.spanX
+                    && item.cellY < other.cellY + other.spanY
+                    && other.cellY < item.cellY + item.spanY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the item of the current row the way the loader does, or returns
+     * null if the row can't be turned into an item.
+     */
+    private ItemInfo createItemInfo(Cursor c) {
+        final Context context = mApp;
+        final int itemType = c.getInt(c
+                .getColumnIndexOrThrow(LauncherSettings.Favorites.ITEM_TYPE));
+        final int titleIndex = c
+                .getColumnIndexOrThrow(LauncherSettings.Favorites.TITLE);
+        final int iconIndex = c
+                .getColumnIndexOrThrow(LauncherSettings.Favorites.ICON);
+        final ItemInfo item;
+        switch (itemType) {
+            case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+            case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                final Intent intent;
+                try {
+                    intent = Intent.parseUri(c.getString(c
+                            .getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT)), 0);
+                } catch (URISyntaxException e) {
+                    return null;
+                }
+                final ShortcutInfo info;
+                if (itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION) {
+                    info = getShortcutInfo(context.getPackageManager(), intent,
+                            context, c, iconIndex, titleIndex,
+                            new HashMap<Object, CharSequence>());
+                } else {
+                    info = getShortcutInfo(c, context,
+                            c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_TYPE),
+                            c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_PACKAGE),
+                            c.getColumnIndexOrThrow(LauncherSettings.Favorites.ICON_RESOURCE),
+                            iconIndex, titleIndex);
+                }
+                if (info == null) {
+                    return null;
+                }
+                info.intent = intent;
+                item = info;
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                final FolderInfo folderInfo = new FolderInfo();
+                folderInfo.title = c.getString(titleIndex);
+                item = folderInfo;
+                break;
+            case LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET:
+                final int appWidgetId = c.getInt(c
+                        .getColumnIndexOrThrow(LauncherSettings.Favorites.APPWIDGET_ID));
+                final AppWidgetProviderInfo provider = AppWidgetManager
+                        .getInstance(context).getAppWidgetInfo(appWidgetId);
+                if (provider == null || provider.provider == null) {
+                    return null;
+                }
+                final LauncherAppWidgetInfo appWidgetInfo = new LauncherAppWidgetInfo(
+                        appWidgetId, provider.provider);
+                appWidgetInfo.spanX = c.getInt(c
+                        .getColumnIndexOrThrow(LauncherSettings.Favorites.SPANX));
+                appWidgetInfo.spanY = c.getInt(c
+                        .getColumnIndexOrThrow(LauncherSettings.Favorites.SPANY));
+                final int[] minSpan = Launcher.getMinSpanForWidget(context,
+                        provider);
+                appWidgetInfo.minSpanX = minSpan[0];
+                appWidgetInfo.minSpanY = minSpan[1];
+                item = appWidgetInfo;
+                break;
+            default:
+                return null;
+        }
+        item.id = c.getLong(c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID));
+        item.container = c.getInt(c
+                .getColumnIndexOrThrow(LauncherSettings.Favorites.CONTAINER));
+        item.screen = c.getInt(c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN));
+        item.cellX = c.getInt(c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLX));
+        item.cellY = c.getInt(c.getColumnIndexOrThrow(LauncherSettings.Favorites.CELLY));
+        if (item instanceof LauncherAppWidgetInfo
+                && item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP
+                && item.container != LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+            return null;
+        }
+        return item;
+    }
+
     // If there is already a loader task running, tell it to stop.
     // returns true if isLaunching() was true on the old task
     private boolean stopLoaderLocked() {
@@ -1049,8 +1675,8 @@ public class LauncherModel extends BroadcastReceiver {
                         && mWorkspaceLoaded) {
                     mLoaderTask.runBindSynchronousPage(synchronousBindPage);
                 } else {
-                    sWorkerThread.setPriority(Thread.NORM_PRIORITY);
-                    sWorker.post(mLoaderTask);
+                    sLoaderLane.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                    sLoaderLane.post(mLoaderTask);
                 }
             }
         }
@@ -1095,9 +1721,13 @@ public class LauncherModel extends BroadcastReceiver {
         private Context mContext;
         private boolean mIsLaunching;
         private boolean mIsLoadingAndBindingWorkspace;
-        private boolean mStopped;
+        private volatile boolean mStopped;
         private boolean mLoadAndBindStepFinished;
 
+        /**
+         * 加载期间的标签缓存，会被sAppInfoResolver的多个线程同时使用，
+         * 所有读写都要先synchronized (mLabelCache)
+         */
         private HashMap<Object, CharSequence> mLabelCache;
 
         LoaderTask(Context context, boolean isLaunching) {
@@ -1297,11 +1927,13 @@ public class LauncherModel extends BroadcastReceiver {
             if (DEBUG_LOADERS)
                 Log.d(TAG, "Comparing loaded icons to database icons");
             synchronized (sBgLock) {
+                final long lockStart = System.nanoTime();
                 for (Object key : sBgDbIconCache.keySet()) {
                     updateSavedIcon(mContext, (ShortcutInfo) key,
                             sBgDbIconCache.get(key));
                 }
                 sBgDbIconCache.clear();
+                recordBgLockHold(lockStart);
             }
 
             // Clear out this reference, otherwise we end up holding it until
@@ -1359,9 +1991,8 @@ public class LauncherModel extends BroadcastReceiver {
 
         // check & update map of what's occupied; used to discard
         // overlapping/invalid items
-        private boolean checkItemPlacement(ItemInfo occupied[][][],
-                ItemInfo item) {
-            int containerIndex = item.screen;
+        private boolean checkItemPlacement(
+                HashMap<Integer, ItemInfo[][]> occupied, ItemInfo item) {
             if (item.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
                 // Return early if we detect that an item is under the hotseat
                 // button
@@ -1370,17 +2001,17 @@ public class LauncherModel extends BroadcastReceiver {
                     return false;
                 }
 
-                // We use the last index to refer to the hotseat and the screen
-                // as the rank, so
-                // test and update the occupied state accordingly
-                if (occupied[Launcher.SCREEN_COUNT][item.screen][0] != null) {
+                // hotseat用单独的键，screen即是rank
+                final ItemInfo[][] hotseat = getOccupiedScreen(occupied,
+                        HOTSEAT_OCCUPIED_KEY);
+                if (hotseat[item.screen][0] != null) {
                     Log.e(TAG, "Error loading shortcut into hotseat " + item
                             + " into position (" + item.screen + ":"
                             + item.cellX + "," + item.cellY + ") occupied by "
-                            + occupied[Launcher.SCREEN_COUNT][item.screen][0]);
+                            + hotseat[item.screen][0]);
                     return false;
                 } else {
-                    occupied[Launcher.SCREEN_COUNT][item.screen][0] = item;
+                    hotseat[item.screen][0] = item;
                     return true;
                 }
             } else if (item.container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
@@ -1390,28 +2021,55 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             // Check if any workspace icons overlap with each other
+            final ItemInfo[][] screen = getOccupiedScreen(occupied, item.screen);
             for (int x = item.cellX; x < (item.cellX + item.spanX); x++) {
                 for (int y = item.cellY; y < (item.cellY + item.spanY); y++) {
-                    if (occupied[containerIndex][x][y] != null) {
+                    if (screen[x][y] != null) {
                         Log.e(TAG, "Error loading shortcut " + item
-                                + " into cell (" + containerIndex + "-"
-                                + item.screen + ":" + x + "," + y
-                                + ") occupied by "
-                                + occupied[containerIndex][x][y]);
+                                + " into cell (" + item.screen + ":" + x + ","
+                                + y + ") occupied by " + screen[x][y]);
                         return false;
                     }
                 }
             }
             for (int x = item.cellX; x < (item.cellX + item.spanX); x++) {
                 for (int y = item.cellY; y < (item.cellY + item.spanY); y++) {
-                    occupied[containerIndex][x][y] = item;
+                    screen[x][y] = item;
                 }
             }
 
             return true;
         }
 
+        /**
+         * 每个屏幕的占用表在第一次用到时才分配，屏幕数不再受限于SCREEN_COUNT
+         */
+        private ItemInfo[][] getOccupiedScreen(
+                HashMap<Integer, ItemInfo[][]> occupied, int screen) {
+            ItemInfo[][] cells = occupied.get(screen);
+            if (cells == null) {
+                // +1 for the hotseat (it can be larger than the workspace)
+                cells = new ItemInfo[mCellCountX + 1][mCellCountY + 1];
+                occupied.put(screen, cells);
+            }
+            return cells;
+        }
+
         private void loadWorkspace() {
+            // Hold back database writes while the model is rebuilt from the
+            // database, they are applied to the new model afterwards
+            sDbLane.pause();
+            try {
+                // Write out pending item updates so that they are part of the
+                // load
+                flushPendingItemUpdates();
+                loadWorkspaceFromDatabase();
+            } finally {
+                sDbLane.resume();
+            }
+        }
+
+        private void loadWorkspaceFromDatabase() {
             final long t = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
             final Context context = mContext;
@@ -1426,6 +2084,7 @@ public class LauncherModel extends BroadcastReceiver {
             mApp.getLauncherProvider().loadDefaultFavoritesIfNecessary(0);
 
             synchronized (sBgLock) {
+                final long lockStart = System.nanoTime();
                 sBgWorkspaceItems.clear();
                 sBgAppWidgets.clear();
                 sBgFolders.clear();
@@ -1438,11 +2097,10 @@ public class LauncherModel extends BroadcastReceiver {
                         LauncherSettings.Favorites.CONTENT_URI, null, null,
                         null, null);
 
-                // +1 for the hotseat (it can be larger than the workspace)
                 // Load workspace in reverse order to ensure that latest items
                 // are loaded first (and
                 // before any earlier duplicates)
-                final ItemInfo occupied[][][] = new ItemInfo[Launcher.SCREEN_COUNT + 1][mCellCountX + 1][mCellCountY + 1];
+                final HashMap<Integer, ItemInfo[][]> occupied = new HashMap<Integer, ItemInfo[][]>();
 
                 try {
                     final int idIndex = c
@@ -1676,18 +2334,26 @@ public class LauncherModel extends BroadcastReceiver {
                 if (itemsToRemove.size() > 0) {
                     ContentProviderClient client = contentResolver
                             .acquireContentProviderClient(LauncherSettings.Favorites.CONTENT_URI);
-                    // Remove dead items
+                    // Remove dead items, in one transaction
+                    final ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(
+                            itemsToRemove.size());
                     for (long id : itemsToRemove) {
                         if (DEBUG_LOADERS) {
                             Log.d(TAG, "Removed id = " + id);
                         }
                         // Don't notify content observers
-                        try {
-                            client.delete(LauncherSettings.Favorites
-                                    .getContentUri(id, false), null, null);
-                        } catch (RemoteException e) {
-                            Log.w(TAG, "Could not remove id = " + id);
-                        }
+                        ops.add(ContentProviderOperation.newDelete(
+                                LauncherSettings.Favorites.getContentUri(id, false))
+                                .build());
+                    }
+                    try {
+                        client.applyBatch(ops);
+                    } catch (RemoteException e) {
+                        Log.w(TAG, "Could not remove " + itemsToRemove.size() + " dead items");
+                    } catch (OperationApplicationException e) {
+                        Log.w(TAG, "Could not remove " + itemsToRemove.size() + " dead items");
+                    } finally {
+                        client.release();
                     }
                 }
 
@@ -1696,20 +2362,27 @@ public class LauncherModel extends BroadcastReceiver {
                             "loaded workspace in "
                                     + (SystemClock.uptimeMillis() - t) + "ms");
                     Log.d(TAG, "workspace layout: ");
+                    int screenCount = 0;
+                    for (int screen : occupied.keySet()) {
+                        screenCount = Math.max(screenCount, screen + 1);
+                    }
                     for (int y = 0; y < mCellCountY; y++) {
                         String line = "";
-                        for (int s = 0; s < Launcher.SCREEN_COUNT; s++) {
+                        for (int s = 0; s < screenCount; s++) {
                             if (s > 0) {
                                 line += " | ";
                             }
+                            final ItemInfo[][] cells = occupied.get(s);
                             for (int x = 0; x < mCellCountX; x++) {
-                                line += ((occupied[s][x][y] != null) ? "#"
+                                line += ((cells != null && cells[x][y] != null) ? "#"
                                         : ".");
                             }
                         }
                         Log.d(TAG, "[ " + line + " ]");
                     }
                 }
+                invalidateSnapshotLocked();
+                recordBgLockHold(lockStart);
             }
         }
 
@@ -1718,15 +2391,16 @@ public class LauncherModel extends BroadcastReceiver {
          * container) on the specified screen.
          */
         private void filterCurrentWorkspaceItems(int currentScreen,
-                ArrayList<ItemInfo> allWorkspaceItems,
+                List<ItemInfo> workspaceItems,
                 ArrayList<ItemInfo> currentScreenItems,
                 ArrayList<ItemInfo> otherScreenItems) {
-            // Purge any null ItemInfos
-            Iterator<ItemInfo> iter = allWorkspaceItems.iterator();
-            while (iter.hasNext()) {
-                ItemInfo i = iter.next();
-                if (i == null) {
-                    iter.remove();
+            // Purge any null ItemInfos, the snapshot can't be sorted in place
+            // so this is the only copy
+            ArrayList<ItemInfo> allWorkspaceItems = new ArrayList<ItemInfo>(
+                    workspaceItems.size());
+            for (ItemInfo i : workspaceItems) {
+                if (i != null) {
+                    allWorkspaceItems.add(i);
                 }
             }
 
@@ -1773,7 +2447,7 @@ public class LauncherModel extends BroadcastReceiver {
 
         /** Filters the set of widgets which are on the specified screen. */
         private void filterCurrentAppWidgets(int currentScreen,
-                ArrayList<LauncherAppWidgetInfo> appWidgets,
+                List<LauncherAppWidgetInfo> appWidgets,
                 ArrayList<LauncherAppWidgetInfo> currentScreenWidgets,
                 ArrayList<LauncherAppWidgetInfo> otherScreenWidgets) {
             // If we aren't filtering on a screen, then the set of items to load
@@ -1797,8 +2471,8 @@ public class LauncherModel extends BroadcastReceiver {
 
         /** Filters the set of folders which are on the specified screen. */
         private void filterCurrentFolders(int currentScreen,
-                HashMap<Long, ItemInfo> itemsIdMap,
-                HashMap<Long, FolderInfo> folders,
+                Map<Long, ItemInfo> itemsIdMap,
+                Map<Long, FolderInfo> folders,
                 HashMap<Long, FolderInfo> currentScreenFolders,
                 HashMap<Long, FolderInfo> otherScreenFolders) {
             // If we aren't filtering on a screen, then the set of items to load
@@ -1940,16 +2614,27 @@ public class LauncherModel extends BroadcastReceiver {
             // all the existing workspace items before we call startBinding()
             // below.
             unbindWorkspaceItemsOnMainThread();
-            ArrayList<ItemInfo> workspaceItems = new ArrayList<ItemInfo>();
-            ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<LauncherAppWidgetInfo>();
-            HashMap<Long, FolderInfo> folders = new HashMap<Long, FolderInfo>();
-            HashMap<Long, ItemInfo> itemsIdMap = new HashMap<Long, ItemInfo>();
-            synchronized (sBgLock) {
-                workspaceItems.addAll(sBgWorkspaceItems);
-                appWidgets.addAll(sBgAppWidgets);
-                folders.putAll(sBgFolders);
-                itemsIdMap.putAll(sBgItemsIdMap);
+            // The snapshot is immutable, so it is filtered directly rather
+            // than copied under sBgLock
+            final ModelSnapshot snapshot = getModelSnapshot();
+            List<ItemInfo> workspaceItems = snapshot.workspaceItems;
+            List<LauncherAppWidgetInfo> appWidgets = snapshot.appWidgets;
+            Map<Long, FolderInfo> folders = snapshot.folders;
+            Map<Long, ItemInfo> itemsIdMap = snapshot.itemsIdMap;
+
+            // Keep the icons of everything bound to the workspace (including
+            // folder contents) from being evicted from the icon cache
+            HashSet<ComponentName> pinnedComponents = new HashSet<ComponentName>();
+            for (ItemInfo info : itemsIdMap.values()) {
+                if (info instanceof ShortcutInfo) {
+                    Intent intent = ((ShortcutInfo) info).intent;
+                    if (intent != null && intent.getComponent() != null) {
+                        pinnedComponents.add(intent.getComponent());
+                    }
+                }
             }
+            mIconCache.setPinnedComponents(IconCache.PIN_WORKSPACE,
+                    pinnedComponents);
 
             ArrayList<ItemInfo> currentWorkspaceItems = new ArrayList<ItemInfo>();
             ArrayList<ItemInfo> otherWorkspaceItems = new ArrayList<ItemInfo>();
@@ -2059,9 +2744,10 @@ public class LauncherModel extends BroadcastReceiver {
             }
 
             // shallow copy
-            @SuppressWarnings("unchecked")
-            final ArrayList<ApplicationInfo> list = (ArrayList<ApplicationInfo>) mBgAllAppsList.data
-                    .clone();
+            final ArrayList<ApplicationInfo> list;
+            synchronized (mAllAppsListLock) {
+                list = new ArrayList<ApplicationInfo>(mBgAllAppsList.data);
+            }
             Runnable r = new Runnable() {
                 public void run() {
                     final long t = SystemClock.uptimeMillis();
@@ -2078,8 +2764,8 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                 }
             };
-            boolean isRunningOnMainThread = !(sWorkerThread.getThreadId() == Process
-                    .myTid());
+            boolean isRunningOnMainThread = Looper.myLooper() == Looper
+                    .getMainLooper();
             if (oldCallbacks.isAllAppsVisible() && isRunningOnMainThread) {
                 r.run();
             } else {
@@ -2114,7 +2800,10 @@ public class LauncherModel extends BroadcastReceiver {
             int batchSize = -1;
             while (i < N && !mStopped) {
                 if (i == 0) {
-                    mBgAllAppsList.clear();
+                    synchronized (mAllAppsListLock) {
+                        mBgAllAppsList.clear();
+                        mPackagesRemovedDuringLoad.clear();
+                    }
                     final long qiaTime = DEBUG_LOADERS ? SystemClock
                             .uptimeMillis() : 0;
                     apps = packageManager.queryIntentActivities(mainIntent, 0);
@@ -2143,9 +2832,7 @@ public class LauncherModel extends BroadcastReceiver {
 
                     final long sortTime = DEBUG_LOADERS ? SystemClock
                             .uptimeMillis() : 0;
-                    Collections.sort(apps,
-                            new LauncherModel.ShortcutNameComparator(
-                                    packageManager, mLabelCache));
+                    sortShortcutsByName(apps, packageManager, mLabelCache);
                     if (DEBUG_LOADERS) {
                         Log.d(TAG, "sort took "
                                 + (SystemClock.uptimeMillis() - sortTime)
@@ -2156,40 +2843,91 @@ public class LauncherModel extends BroadcastReceiver {
                 final long t2 = DEBUG_LOADERS ? SystemClock.uptimeMillis() : 0;
 
                 startIndex = i;
-                for (int j = 0; i < N && j < batchSize; j++) {
-                    // This builds the icon bitmaps.
-                    mBgAllAppsList.add(new ApplicationInfo(packageManager, apps
-                            .get(i), mIconCache, mLabelCache));
+                final int batchEnd = Math.min(N, i + batchSize);
+                final int priority = Process.getThreadPriority(Process.myTid());
+                final ArrayList<Future<ApplicationInfo>> resolving = new ArrayList<Future<ApplicationInfo>>(
+                        batchEnd - i);
+                for (int j = i; j < batchEnd; j++) {
+                    final ResolveInfo info = apps.get(j);
+                    resolving.add(sAppInfoResolver
+                            .submit(new Callable<ApplicationInfo>() {
+                                public ApplicationInfo call() {
+                                    if (mStopped) {
+                                        return null;
+                                    }
+                                    // Resolve at the loader's priority so that
+                                    // the first load at boot isn't starved.
+                                    Process.setThreadPriority(priority);
+                                    // This builds the icon bitmaps.
+                                    return new ApplicationInfo(packageManager,
+                                            info, mIconCache, mLabelCache);
+                                }
+                            }));
+                }
+                // Consume the results in the sorted order of apps, regardless
+                // of the order in which the resolver threads finish them.
+                final ArrayList<ApplicationInfo> resolved = new ArrayList<ApplicationInfo>(
+                        resolving.size());
+                for (Future<ApplicationInfo> future : resolving) {
+                    if (mStopped) {
+                        for (Future<ApplicationInfo> f : resolving) {
+                            f.cancel(false);
+                        }
+                        return;
+                    }
+                    final ApplicationInfo app = getResolvedApplicationInfo(future);
+                    if (app != null) {
+                        resolved.add(app);
+                    }
                     i++;
                 }
 
                 final boolean first = i <= batchSize;
                 final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                final ArrayList<ApplicationInfo> added = mBgAllAppsList.added;
-                mBgAllAppsList.added = new ArrayList<ApplicationInfo>();
+                final ArrayList<ApplicationInfo> added;
+                // Posted under the lock too, so that the binds keep the order
+                // of the changes made by the package lane
+                synchronized (mAllAppsListLock) {
+                    for (ApplicationInfo app : resolved) {
+                        if (!mPackagesRemovedDuringLoad.contains(app.componentName
+                                .getPackageName())) {
+                            mBgAllAppsList.add(app);
+                        }
+                    }
+                    if (first) {
+                        // bindAllApplications() replaces the list in the UI, so
+                        // it must include apps the package lane added (and
+                        // already bound) since the list was cleared
+                        added = new ArrayList<ApplicationInfo>(mBgAllAppsList.data);
+                        mBgAllAppsList.added.clear();
+                    } else {
+                        added = mBgAllAppsList.added;
+                        mBgAllAppsList.added = new ArrayList<ApplicationInfo>();
+                    }
 
-                mHandler.post(new Runnable() {
-                    public void run() {
-                        final long t = SystemClock.uptimeMillis();
-                        if (callbacks != null) {
-                            if (first) {
-                                callbacks.bindAllApplications(added);
+                    mHandler.post(new Runnable() {
+                        public void run() {
+                            final long t = SystemClock.uptimeMillis();
+                            if (callbacks != null) {
+                                if (first) {
+                                    callbacks.bindAllApplications(added);
+                                } else {
+                                    callbacks.bindAppsAdded(added);
+                                }
+                                if (DEBUG_LOADERS) {
+                                    Log.d(TAG,
+                                            "bound "
+                                                    + added.size()
+                                                    + " apps in "
+                                                    + (SystemClock.uptimeMillis() - t)
+                                                    + "ms");
+                                }
                             } else {
-                                callbacks.bindAppsAdded(added);
-                            }
-                            if (DEBUG_LOADERS) {
-                                Log.d(TAG,
-                                        "bound "
-                                                + added.size()
-                                                + " apps in "
-                                                + (SystemClock.uptimeMillis() - t)
-                                                + "ms");
+                                Log.i(TAG, "not binding apps: no Launcher activity");
                             }
-                        } else {
-                            Log.i(TAG, "not binding apps: no Launcher activity");
                         }
-                    }
-                });
+                    });
+                }
 
                 if (DEBUG_LOADERS) {
                     Log.d(TAG,
@@ -2222,26 +2960,124 @@ public class LauncherModel extends BroadcastReceiver {
             }
         }
 
-        public void dumpState() {
-            synchronized (sBgLock) {
-                Log.d(TAG, "mLoaderTask.mContext=" + mContext);
-                Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
-                Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
-                Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished="
-                        + mLoadAndBindStepFinished);
-                Log.d(TAG, "mItems size=" + sBgWorkspaceItems.size());
+        /**
+         * 等待并发解析的结果，失败时返回null，该app被跳过
+         */
+        private ApplicationInfo getResolvedApplicationInfo(
+                Future<ApplicationInfo> future) {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // Ignore, the loader is stopped through mStopped
+                } catch (CancellationException e) {
+                    return null;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to resolve application", e.getCause());
+                    return null;
+                }
             }
         }
+
+        public void dumpState() {
+            Log.d(TAG, "mLoaderTask.mContext=" + mContext);
+            Log.d(TAG, "mLoaderTask.mIsLaunching=" + mIsLaunching);
+            Log.d(TAG, "mLoaderTask.mStopped=" + mStopped);
+            Log.d(TAG, "mLoaderTask.mLoadAndBindStepFinished="
+                    + mLoadAndBindStepFinished);
+            Log.d(TAG, "mItems size=" + getModelSnapshot().workspaceItems.size());
+        }
     }
 
+    /**
+     * 单个包的广播先在这个时间窗口内合并，再一起执行
+     */
+    private static final int PACKAGE_UPDATES_COALESCE_DELAY = 250;
+
+    /**
+     * Package name -> pending op, in arrival order
+     */
+    private final LinkedHashMap<String, Integer> mPendingPackageOps = new LinkedHashMap<String, Integer>();
+    private boolean mPackageOpsFlushScheduled;
+
+    private final Runnable mFlushPendingPackageOps = new Runnable() {
+        public void run() {
+            flushPendingPackageOps();
+        }
+    };
+
     // 批量更新Package
     void enqueuePackageUpdated(PackageUpdatedTask task) {
-        sWorker.post(task);
+        // Whatever is still being coalesced happened before this task
+        sPackageLane.post(mFlushPendingPackageOps);
+        sPackageLane.post(task);
+    }
+
+    /**
+     * Queues the op for the package. Ops arriving for the same package within
+     * the window are merged, and all the pending packages are then handled by
+     * a single PackageUpdatedTask.
+     */
+    void schedulePackageUpdate(int op, String packageName) {
+        synchronized (mPendingPackageOps) {
+            final Integer pending = mPendingPackageOps.remove(packageName);
+            mPendingPackageOps.put(packageName, mergePackageOps(
+                    pending != null ? pending : PackageUpdatedTask.OP_NONE, op));
+            if (!mPackageOpsFlushScheduled) {
+                mPackageOpsFlushScheduled = true;
+                sPackageLane.postDelayed(mFlushPendingPackageOps,
+                        PACKAGE_UPDATES_COALESCE_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Returns the op equivalent to pending followed by op.
+     */
+    private static int mergePackageOps(int pending, int op) {
+        final boolean pendingRemove = pending == PackageUpdatedTask.OP_REMOVE
+                || pending == PackageUpdatedTask.OP_UNAVAILABLE;
+        // An add followed by a removal stays a removal: the loader may have
+        // picked the package up already, and removing a package the model
+        // doesn't know does nothing
+        if (pending == PackageUpdatedTask.OP_ADD
+                && op == PackageUpdatedTask.OP_UPDATE) {
+            // Adding reads the current state anyway
+            return PackageUpdatedTask.OP_ADD;
+        } else if (pendingRemove && op == PackageUpdatedTask.OP_ADD) {
+            // Reinstalled, its apps never left the model
+            return PackageUpdatedTask.OP_UPDATE;
+        }
+        return op;
+    }
+
+    /**
+     * IconCache发现磁盘上的图标比安装的包旧（包在launcher没有运行时被更新），
+     * 按包更新处理，重新生成图标并刷新已绑定的项
+     */
+    void onPackageIconsStale(String packageName) {
+        schedulePackageUpdate(PackageUpdatedTask.OP_UPDATE, packageName);
+    }
+
+    private void flushPendingPackageOps() {
+        final PackageUpdatedTask task;
+        synchronized (mPendingPackageOps) {
+            sPackageLane.removeCallbacks(mFlushPendingPackageOps);
+            mPackageOpsFlushScheduled = false;
+            if (mPendingPackageOps.isEmpty()) {
+                return;
+            }
+            task = new PackageUpdatedTask(mPendingPackageOps);
+            mPendingPackageOps.clear();
+        }
+        task.run();
     }
 
     private class PackageUpdatedTask implements Runnable {
-        int mOp;
-        String[] mPackages;
+        /**
+         * Package name -> op
+         */
+        final LinkedHashMap<String, Integer> mOps;
 
         public static final int OP_NONE = 0;
         public static final int OP_ADD = 1;
@@ -2250,39 +3086,74 @@ public class LauncherModel extends BroadcastReceiver {
         public static final int OP_UNAVAILABLE = 4; // external media unmounted
 
         public PackageUpdatedTask(int op, String[] packages) {
-            mOp = op;
-            mPackages = packages;
+            mOps = new LinkedHashMap<String, Integer>();
+            for (String packageName : packages) {
+                mOps.put(packageName, op);
+            }
+        }
+
+        public PackageUpdatedTask(Map<String, Integer> ops) {
+            mOps = new LinkedHashMap<String, Integer>(ops);
         }
 
         public void run() {
+            synchronized (mAllAppsListLock) {
+                runLocked();
+            }
+        }
+
+        private void runLocked() {
             final Context context = mApp;
 
-            final String[] packages = mPackages;
-            final int N = packages.length;
-            switch (mOp) {
-                case OP_ADD:
-                    for (int i = 0; i < N; i++) {
+            final ArrayList<String> removedPermanently = new ArrayList<String>();
+            final ArrayList<String> removedUnavailable = new ArrayList<String>();
+            // Updated packages whose activities were disabled or removed
+            final ArrayList<String> removedByUpdate = new ArrayList<String>();
+            for (Map.Entry<String, Integer> op : mOps.entrySet()) {
+                final String packageName = op.getKey();
+                switch (op.getValue()) {
+                    case OP_ADD:
                         if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.addPackage " + packages[i]);
-                        mBgAllAppsList.addPackage(context, packages[i]);
-                    }
-                    break;
-                case OP_UPDATE:
-                    for (int i = 0; i < N; i++) {
-                        if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.updatePackage " + packages[i]);
-                        mBgAllAppsList.updatePackage(context, packages[i]);
-                    }
-                    break;
-                case OP_REMOVE:
-                case OP_UNAVAILABLE:
-                    for (int i = 0; i < N; i++) {
+                            Log.d(TAG, "mAllAppsList.addPackage " + packageName);
+                        mBgAllAppsList.addPackage(context, packageName);
+                        break;
+                    case OP_UPDATE:
                         if (DEBUG_LOADERS)
-                            Log.d(TAG, "mAllAppsList.removePackage " + packages[i]);
-                        mBgAllAppsList.removePackage(packages[i]);
-                    }
-                    break;
+                            Log.d(TAG, "mAllAppsList.updatePackage " + packageName);
+                        final int removedBefore = mBgAllAppsList.removed.size();
+                        mBgAllAppsList.updatePackage(context, packageName);
+                        if (mBgAllAppsList.removed.size() > removedBefore) {
+                            removedByUpdate.add(packageName);
+                        }
+                        mApp.getWidgetPreviewCache().removePackage(packageName);
+                        mApp.getPreviewBitmapCache().removePackage(packageName);
+                        removeCollationKeys(packageName);
+                        break;
+                    case OP_REMOVE:
+                        removedPermanently.add(packageName);
+                        mApp.getWidgetPreviewCache().removePackage(packageName);
+                        mApp.getPreviewBitmapCache().removePackage(packageName);
+                        removeCollationKeys(packageName);
+                        break;
+                    case OP_UNAVAILABLE:
+                        removedUnavailable.add(packageName);
+                        break;
+                }
+            }
+            // We may be removing packages that have no associated launcher
+            // application, so we pass through the removed package names
+            // directly.
+            // NOTE: removePackage() also evicts the cached icons of these
+            // packages, and deletes the saved ones of uninstalled packages.
+            if (!removeApplications(removedPermanently, true)) {
+                removedPermanently.clear();
+            }
+            if (!removeApplications(removedUnavailable, false)) {
+                removedUnavailable.clear();
             }
+            // Only now that every op has been looked at
+            mBgAllAppsList.removed.clear();
+            removedPermanently.addAll(removedByUpdate);
 
             ArrayList<ApplicationInfo> added = null;
             ArrayList<ApplicationInfo> modified = null;
@@ -2296,19 +3167,6 @@ public class LauncherModel extends BroadcastReceiver {
                         mBgAllAppsList.modified);
                 mBgAllAppsList.modified.clear();
             }
-            // We may be removing packages that have no associated launcher
-            // application, so we
-            // pass through the removed package names directly.
-            // NOTE: We flush the icon cache aggressively in removePackage()
-            // above.
-            final ArrayList<String> removedPackageNames = new ArrayList<String>();
-            if (mBgAllAppsList.removed.size() > 0) {
-                mBgAllAppsList.removed.clear();
-
-                for (int i = 0; i < N; ++i) {
-                    removedPackageNames.add(packages[i]);
-                }
-            }
 
             final Callbacks callbacks = mCallbacks != null ? mCallbacks.get()
                     : null;
@@ -2318,6 +3176,7 @@ public class LauncherModel extends BroadcastReceiver {
                 return;
             }
 
+            // One bind of each kind for the whole batch of packages
             if (added != null) {
                 final ArrayList<ApplicationInfo> addedFinal = added;
                 mHandler.post(new Runnable() {
@@ -2342,15 +3201,20 @@ public class LauncherModel extends BroadcastReceiver {
                     }
                 });
             }
-            if (!removedPackageNames.isEmpty()) {
-                final boolean permanent = mOp != OP_UNAVAILABLE;
+            if (!removedPermanently.isEmpty() || !removedUnavailable.isEmpty()) {
                 mHandler.post(new Runnable() {
                     public void run() {
                         Callbacks cb = mCallbacks != null ? mCallbacks.get()
                                 : null;
                         if (callbacks == cb && cb != null) {
-                            callbacks.bindAppsRemoved(removedPackageNames,
-                                    permanent);
+                            if (!removedPermanently.isEmpty()) {
+                                callbacks.bindAppsRemoved(removedPermanently,
+                                        true);
+                            }
+                            if (!removedUnavailable.isEmpty()) {
+                                callbacks.bindAppsRemoved(removedUnavailable,
+                                        false);
+                            }
                         }
                     }
                 });
@@ -2366,6 +3230,22 @@ public class LauncherModel extends BroadcastReceiver {
                 }
             });
         }
+
+        /**
+         * Removes the packages from the all apps list, returns whether any
+         * application was removed.
+         */
+        private boolean removeApplications(ArrayList<String> packageNames,
+                boolean permanent) {
+            final int removedBefore = mBgAllAppsList.removed.size();
+            for (String packageName : packageNames) {
+                if (DEBUG_LOADERS)
+                    Log.d(TAG, "mAllAppsList.removePackage " + packageName);
+                mBgAllAppsList.removePackage(packageName, permanent);
+                mPackagesRemovedDuringLoad.add(packageName);
+            }
+            return mBgAllAppsList.removed.size() > removedBefore;
+        }
     }
 
     /**
@@ -2457,12 +3337,20 @@ public class LauncherModel extends BroadcastReceiver {
         if (resolveInfo != null) {
             ComponentName key = LauncherModel
                     .getComponentNameFromResolveInfo(resolveInfo);
-            if (labelCache != null && labelCache.containsKey(key)) {
-                info.title = labelCache.get(key);
+            CharSequence cachedTitle = null;
+            if (labelCache != null) {
+                synchronized (labelCache) {
+                    cachedTitle = labelCache.get(key);
+                }
+            }
+            if (cachedTitle != null) {
+                info.title = cachedTitle;
             } else {
                 info.title = resolveInfo.activityInfo.loadLabel(manager);
                 if (labelCache != null) {
-                    labelCache.put(key, info.title);
+                    synchronized (labelCache) {
+                        labelCache.put(key, info.title);
+                    }
                 }
             }
         }
@@ -2486,13 +3374,12 @@ public class LauncherModel extends BroadcastReceiver {
     static ArrayList<ItemInfo> getWorkspaceShortcutItemInfosWithIntent(
             Intent intent) {
         ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
-        synchronized (sBgLock) {
-            for (ItemInfo info : sBgWorkspaceItems) {
-                if (info instanceof ShortcutInfo) {
-                    ShortcutInfo shortcut = (ShortcutInfo) info;
-                    if (shortcut.intent.toUri(0).equals(intent.toUri(0))) {
-                        items.add(shortcut);
-                    }
+        final String uri = intent.toUri(0);
+        for (ItemInfo info : getModelSnapshot().workspaceItems) {
+            if (info instanceof ShortcutInfo) {
+                ShortcutInfo shortcut = (ShortcutInfo) info;
+                if (shortcut.intent.toUri(0).equals(uri)) {
+                    items.add(shortcut);
                 }
             }
         }
@@ -2774,18 +3661,93 @@ public class LauncherModel extends BroadcastReceiver {
         return folderInfo;
     }
 
-    public static final Comparator<ApplicationInfo> getAppNameComparator() {
-        final Collator collator = Collator.getInstance();
-        return new Comparator<ApplicationInfo>() {
-            public final int compare(ApplicationInfo a, ApplicationInfo b) {
-                int result = collator.compare(a.title.toString(),
-                        b.title.toString());
-                if (result == 0) {
-                    result = a.componentName.compareTo(b.componentName);
+    private static final Object sCollatorLock = new Object();
+    private static Collator sCollator;
+    private static Locale sCollatorLocale;
+
+    /**
+     * 生成标签排序用的CollationKey。Collator不是线程安全的，并且与当前语言相关，
+     * 所以这里共用一个加锁的实例，语言改变时重新创建
+     */
+    static CollationKey getCollationKey(CharSequence label) {
+        final String source = label != null ? label.toString() : "";
+        synchronized (sCollatorLock) {
+            updateCollatorLocked();
+            return sCollator.getCollationKey(source);
+        }
+    }
+
+    /**
+     * 插件和快捷方式的CollationKey缓存。AppWidgetProviderInfo和ResolveInfo每次都是
+     * 从系统重新取得的对象，不能像ApplicationInfo那样带着key，所以按ComponentName缓存，
+     * 标签或语言改变时重新生成
+     */
+    private static final HashMap<ComponentName, CachedCollationKey> sComponentCollationKeys =
+            new HashMap<ComponentName, CachedCollationKey>();
+
+    private static class CachedCollationKey {
+        final String label;
+        final CollationKey key;
+
+        CachedCollationKey(String label, CollationKey key) {
+            this.label = label;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Returns the key of the component's label, reusing the one computed for
+     * an earlier sort if the label hasn't changed.
+     */
+    static CollationKey getCollationKey(ComponentName component, CharSequence label) {
+        final String source = label != null ? label.toString() : "";
+        synchronized (sCollatorLock) {
+            updateCollatorLocked();
+            CachedCollationKey cached = sComponentCollationKeys.get(component);
+            if (cached != null && cached.label.equals(source)) {
+                return cached.key;
+            }
+            final CollationKey key = sCollator.getCollationKey(source);
+            sComponentCollationKeys.put(component, new CachedCollationKey(source, key));
+            return key;
+        }
+    }
+
+    /**
+     * 包被更新或卸载时丢掉它的组件的CollationKey
+     */
+    static void removeCollationKeys(String packageName) {
+        synchronized (sCollatorLock) {
+            Iterator<ComponentName> iter = sComponentCollationKeys.keySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getPackageName().equals(packageName)) {
+                    iter.remove();
                 }
-                return result;
             }
-        };
+        }
+    }
+
+    private static void updateCollatorLocked() {
+        final Locale locale = Locale.getDefault();
+        if (sCollator == null || !locale.equals(sCollatorLocale)) {
+            sCollator = Collator.getInstance(locale);
+            sCollatorLocale = locale;
+            sComponentCollationKeys.clear();
+        }
+    }
+
+    private static final Comparator<ApplicationInfo> APP_NAME_COMPARATOR = new Comparator<ApplicationInfo>() {
+        public final int compare(ApplicationInfo a, ApplicationInfo b) {
+            int result = a.getTitleKey().compareTo(b.getTitleKey());
+            if (result == 0) {
+                result = a.componentName.compareTo(b.componentName);
+            }
+            return result;
+        }
+    };
+
+    public static final Comparator<ApplicationInfo> getAppNameComparator() {
+        return APP_NAME_COMPARATOR;
     }
 
     public static final Comparator<ApplicationInfo> APP_INSTALL_TIME_COMPARATOR = new Comparator<ApplicationInfo>() {
@@ -2799,11 +3761,11 @@ public class LauncherModel extends BroadcastReceiver {
     };
 
     public static final Comparator<AppWidgetProviderInfo> getWidgetNameComparator() {
-        final Collator collator = Collator.getInstance();
         return new Comparator<AppWidgetProviderInfo>() {
             public final int compare(AppWidgetProviderInfo a,
                     AppWidgetProviderInfo b) {
-                return collator.compare(a.label.toString(), b.label.toString());
+                return getCollationKey(a.provider, a.label).compareTo(
+                        getCollationKey(b.provider, b.label));
             }
         };
     }
@@ -2818,82 +3780,86 @@ public class LauncherModel extends BroadcastReceiver {
         }
     }
 
-    public static class ShortcutNameComparator implements
-            Comparator<ResolveInfo> {
-        private Collator mCollator;
-        private PackageManager mPackageManager;
-        private HashMap<Object, CharSequence> mLabelCache;
-
-        ShortcutNameComparator(PackageManager pm) {
-            mPackageManager = pm;
-            mLabelCache = new HashMap<Object, CharSequence>();
-            mCollator = Collator.getInstance();
-        }
+    /**
+     * 排序时与其CollationKey配对的元素
+     */
+    private static class KeyedItem<T> {
+        final CollationKey key;
+        final T item;
 
-        ShortcutNameComparator(PackageManager pm,
-                HashMap<Object, CharSequence> labelCache) {
-            mPackageManager = pm;
-            mLabelCache = labelCache;
-            mCollator = Collator.getInstance();
+        KeyedItem(CollationKey key, T item) {
+            this.key = key;
+            this.item = item;
         }
+    }
 
-        public final int compare(ResolveInfo a, ResolveInfo b) {
-            CharSequence labelA, labelB;
-            ComponentName keyA = LauncherModel
-                    .getComponentNameFromResolveInfo(a);
-            ComponentName keyB = LauncherModel
-                    .getComponentNameFromResolveInfo(b);
-            if (mLabelCache.containsKey(keyA)) {
-                labelA = mLabelCache.get(keyA);
-            } else {
-                labelA = a.loadLabel(mPackageManager).toString();
-
-                mLabelCache.put(keyA, labelA);
-            }
-            if (mLabelCache.containsKey(keyB)) {
-                labelB = mLabelCache.get(keyB);
-            } else {
-                labelB = b.loadLabel(mPackageManager).toString();
-
-                mLabelCache.put(keyB, labelB);
-            }
-            return mCollator.compare(labelA, labelB);
+    private static final Comparator<KeyedItem<?>> KEYED_ITEM_COMPARATOR = new Comparator<KeyedItem<?>>() {
+        public final int compare(KeyedItem<?> a, KeyedItem<?> b) {
+            return a.key.compareTo(b.key);
         }
     };
 
-    public static class WidgetAndShortcutNameComparator implements
-            Comparator<Object> {
-        private Collator mCollator;
-        private PackageManager mPackageManager;
-        private HashMap<Object, String> mLabelCache;
-
-        WidgetAndShortcutNameComparator(PackageManager pm) {
-            mPackageManager = pm;
-            mLabelCache = new HashMap<Object, String>();
-            mCollator = Collator.getInstance();
+    /**
+     * Sorts items by keys computed up front, so that labels are loaded and
+     * collated once per item rather than on every comparison.
+     */
+    private static <T> void sortByKeys(List<T> items, List<CollationKey> keys) {
+        final int N = items.size();
+        final ArrayList<KeyedItem<T>> keyed = new ArrayList<KeyedItem<T>>(N);
+        for (int i = 0; i < N; i++) {
+            keyed.add(new KeyedItem<T>(keys.get(i), items.get(i)));
+        }
+        Collections.sort(keyed, KEYED_ITEM_COMPARATOR);
+        for (int i = 0; i < N; i++) {
+            items.set(i, keyed.get(i).item);
         }
+    }
 
-        public final int compare(Object a, Object b) {
-            String labelA, labelB;
-            if (mLabelCache.containsKey(a)) {
-                labelA = mLabelCache.get(a);
-            } else {
-                labelA = (a instanceof AppWidgetProviderInfo) ? ((AppWidgetProviderInfo) a).label
-                        : ((ResolveInfo) a).loadLabel(mPackageManager)
-                                .toString();
-                mLabelCache.put(a, labelA);
-            }
-            if (mLabelCache.containsKey(b)) {
-                labelB = mLabelCache.get(b);
+    /**
+     * 按标签对ResolveInfo排序，加载的标签放到labelCache中
+     */
+    static void sortShortcutsByName(List<ResolveInfo> shortcuts,
+            PackageManager pm, HashMap<Object, CharSequence> labelCache) {
+        final int N = shortcuts.size();
+        final ArrayList<CollationKey> keys = new ArrayList<CollationKey>(N);
+        for (int i = 0; i < N; i++) {
+            final ResolveInfo info = shortcuts.get(i);
+            final ComponentName key = getComponentNameFromResolveInfo(info);
+            CharSequence label;
+            synchronized (labelCache) {
+                label = labelCache.get(key);
+            }
+            if (label == null) {
+                label = info.loadLabel(pm).toString();
+                synchronized (labelCache) {
+                    labelCache.put(key, label);
+                }
+            }
+            keys.add(getCollationKey(key, label));
+        }
+        sortByKeys(shortcuts, keys);
+    }
+
+    /**
+     * 对插件（AppWidgetProviderInfo）和快捷方式（ResolveInfo）的混合列表按标签排序
+     */
+    static void sortWidgetsAndShortcutsByName(List<Object> items,
+            PackageManager pm) {
+        final int N = items.size();
+        final ArrayList<CollationKey> keys = new ArrayList<CollationKey>(N);
+        for (int i = 0; i < N; i++) {
+            final Object o = items.get(i);
+            if (o instanceof AppWidgetProviderInfo) {
+                final AppWidgetProviderInfo widget = (AppWidgetProviderInfo) o;
+                keys.add(getCollationKey(widget.provider, widget.label));
             } else {
-                labelB = (b instanceof AppWidgetProviderInfo) ? ((AppWidgetProviderInfo) b).label
-                        : ((ResolveInfo) b).loadLabel(mPackageManager)
-                                .toString();
-                mLabelCache.put(b, labelB);
+                final ResolveInfo shortcut = (ResolveInfo) o;
+                keys.add(getCollationKey(getComponentNameFromResolveInfo(shortcut),
+                        shortcut.loadLabel(pm)));
             }
-            return mCollator.compare(labelA, labelB);
         }
-    };
+        sortByKeys(items, keys);
+    }
 
     /**
      * 一堆log
@@ -2908,6 +3874,17 @@ public class LauncherModel extends BroadcastReceiver {
                 mBgAllAppsList.removed);
         ApplicationInfo.dumpApplicationInfoList(TAG, "mAllAppsList.modified",
                 mBgAllAppsList.modified);
+        mIconCache.dumpStats();
+        mHandler.dumpStats();
+        final long holds = sBgLockHolds.get();
+        Log.d(TAG, "model snapshot version=" + sBgSnapshot.version
+                + " stale=" + sBgSnapshotStale
+                + " sBgLock holds=" + holds + " avgHoldUs="
+                + (holds > 0 ? sBgLockHoldNanos.get() / holds / 1000 : 0)
+                + " maxHoldUs=" + sBgLockMaxHoldNanos.get() / 1000);
+        sLoaderLane.dumpStats();
+        sDbLane.dumpStats();
+        sPackageLane.dumpStats();
         if (mLoaderTask != null) {
             mLoaderTask.dumpState();
         } else {
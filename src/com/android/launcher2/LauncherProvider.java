@@ -22,11 +22,14 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
@@ -58,6 +61,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 public class LauncherProvider extends ContentProvider {
@@ -145,6 +150,9 @@ public class LauncherProvider extends ContentProvider {
         if (rowId <= 0) return null;
 
         uri = ContentUris.withAppendedId(uri, rowId);
+        if (shouldNotify(uri)) {
+            recordChange(FavoritesChange.INSERTED, rowId);
+        }
         sendNotify(uri);
 
         return uri;
@@ -168,6 +176,12 @@ public class LauncherProvider extends ContentProvider {
             db.endTransaction();
         }
 
+        if (shouldNotify(uri)) {
+            for (ContentValues value : values) {
+                recordChange(FavoritesChange.INSERTED,
+                        value.getAsLong(LauncherSettings.Favorites._ID));
+            }
+        }
         sendNotify(uri);
         return values.length;
     }
@@ -177,8 +191,21 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.delete(args.table, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        final BatchState batch = mBatchState.get();
+        final long[] ids = shouldNotify(uri) ? queryIds(db, args) : null;
+        int count;
+        if (batch != null && args.id >= 0) {
+            SQLiteStatement statement = batch.getStatement(db, "DELETE FROM "
+                    + args.table + " WHERE _id=?");
+            statement.bindLong(1, args.id);
+            count = statement.executeUpdateDelete();
+        } else {
+            count = db.delete(args.table, args.where, args.args);
+        }
+        if (count > 0) {
+            recordChanges(FavoritesChange.DELETED, ids);
+            sendNotify(uri);
+        }
 
         return count;
     }
@@ -188,16 +215,258 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, values, args.where, args.args);
-        if (count > 0) sendNotify(uri);
+        final BatchState batch = mBatchState.get();
+        final long[] ids = shouldNotify(uri) ? queryIds(db, args) : null;
+        int count;
+        if (batch != null && args.id >= 0 && values.size() > 0) {
+            count = updateById(batch, db, args.table, args.id, values);
+        } else {
+            count = db.update(args.table, values, args.where, args.args);
+        }
+        if (count > 0) {
+            recordChanges(FavoritesChange.UPDATED, ids);
+            sendNotify(uri);
+        }
 
         return count;
     }
 
-    private void sendNotify(Uri uri) {
+    /**
+     * Runs all the operations in a single transaction, and sends at most one
+     * change notification for the whole batch. Updates and deletes by id
+     * reuse compiled statements for the duration of the batch.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        final BatchState batch = new BatchState();
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mBatchState.set(batch);
+        boolean success = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            success = true;
+        } finally {
+            db.endTransaction();
+            mBatchState.set(null);
+            batch.close();
+            // The changes are only published once they are committed
+            synchronized (mChangeLock) {
+                if (success) {
+                    for (FavoritesChange change : batch.changes) {
+                        addChangeLocked(change);
+                    }
+                } else if (!batch.changes.isEmpty()) {
+                    mChangesOverflowed = true;
+                }
+            }
+        }
+
+        if (batch.notifyUri != null) {
+            getContext().getContentResolver().notifyChange(batch.notifyUri, null);
+        }
+        return results;
+    }
+
+    private static int updateById(BatchState batch, SQLiteDatabase db, String table,
+            long id, ContentValues values) {
+        // The statement is keyed by the set of columns, so the usual
+        // move/resize updates all share the same compiled statement.
+        final ArrayList<String> columns = new ArrayList<String>(values.keySet());
+        Collections.sort(columns);
+        final StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) sql.append(',');
+            sql.append(columns.get(i)).append("=?");
+        }
+        sql.append(" WHERE _id=?");
+
+        SQLiteStatement statement = batch.getStatement(db, sql.toString());
+        for (int i = 0; i < columns.size(); i++) {
+            bindValue(statement, i + 1, values.get(columns.get(i)));
+        }
+        statement.bindLong(columns.size() + 1, id);
+        return statement.executeUpdateDelete();
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    private static boolean shouldNotify(Uri uri) {
         String notify = uri.getQueryParameter(PARAMETER_NOTIFY);
-        if (notify == null || "true".equals(notify)) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        return notify == null || "true".equals(notify);
+    }
+
+    private void sendNotify(Uri uri) {
+        if (shouldNotify(uri)) {
+            final BatchState batch = mBatchState.get();
+            if (batch != null) {
+                // Sent once when the batch is done
+                batch.notifyUri = LauncherSettings.Favorites.CONTENT_URI;
+            } else {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * 收藏表的一条行级改动。只有会发出通知的改动才被记录（Launcher自己的写入
+     * 都不通知），LauncherModel收到通知后取走这些记录并增量更新
+     */
+    static class FavoritesChange {
+        static final int INSERTED = 0;
+        static final int UPDATED = 1;
+        static final int DELETED = 2;
+
+        final int op;
+        final long id;
+
+        FavoritesChange(int op, long id) {
+            this.op = op;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Beyond this many pending changes the log is dropped and the model
+     * reloads everything.
+     */
+    private static final int MAX_PENDING_CHANGES = 256;
+
+    private final Object mChangeLock = new Object();
+    private ArrayList<FavoritesChange> mChanges = new ArrayList<FavoritesChange>();
+    private boolean mChangesOverflowed;
+
+    /**
+     * Returns the changes recorded since the last call, or null if some of
+     * them were lost and the caller has to reload all the favorites.
+     */
+    ArrayList<FavoritesChange> drainFavoritesChanges() {
+        synchronized (mChangeLock) {
+            final ArrayList<FavoritesChange> changes = mChangesOverflowed ? null : mChanges;
+            mChanges = new ArrayList<FavoritesChange>();
+            mChangesOverflowed = false;
+            return changes;
+        }
+    }
+
+    private void recordChange(int op, Long id) {
+        if (id == null) {
+            // Can't tell which row changed
+            synchronized (mChangeLock) {
+                mChangesOverflowed = true;
+            }
+            return;
+        }
+        final FavoritesChange change = new FavoritesChange(op, id);
+        final BatchState batch = mBatchState.get();
+        if (batch != null) {
+            batch.changes.add(change);
+        } else {
+            synchronized (mChangeLock) {
+                addChangeLocked(change);
+            }
+        }
+    }
+
+    private void recordChanges(int op, long[] ids) {
+        if (ids == null) {
+            return;
+        }
+        for (long id : ids) {
+            recordChange(op, id);
+        }
+    }
+
+    private void addChangeLocked(FavoritesChange change) {
+        if (mChangesOverflowed) {
+            return;
+        }
+        if (mChanges.size() >= MAX_PENDING_CHANGES) {
+            mChanges.clear();
+            mChangesOverflowed = true;
+            return;
+        }
+        mChanges.add(change);
+    }
+
+    /**
+     * Returns the ids of the rows an update or delete is about to touch. The
+     * common case addresses a single row by its uri and needs no query.
+     */
+    private long[] queryIds(SQLiteDatabase db, SqlArguments args) {
+        if (args.id >= 0) {
+            return new long[] { args.id };
+        }
+        if (!TABLE_FAVORITES.equals(args.table)) {
+            return null;
+        }
+        Cursor c = db.query(args.table, new String[] { LauncherSettings.Favorites._ID },
+                args.where, args.args, null, null, null);
+        try {
+            if (c.getCount() > MAX_PENDING_CHANGES) {
+                synchronized (mChangeLock) {
+                    mChangesOverflowed = true;
+                }
+                return null;
+            }
+            final long[] ids = new long[c.getCount()];
+            int i = 0;
+            while (c.moveToNext()) {
+                ids[i++] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * The state of the applyBatch() running on the current thread
+     */
+    private final ThreadLocal<BatchState> mBatchState = new ThreadLocal<BatchState>();
+
+    private static class BatchState {
+        final HashMap<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+        final ArrayList<FavoritesChange> changes = new ArrayList<FavoritesChange>();
+        Uri notifyUri;
+
+        SQLiteStatement getStatement(SQLiteDatabase db, String sql) {
+            SQLiteStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = db.compileStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statement.clearBindings();
+            }
+            return statement;
+        }
+
+        void close() {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
         }
     }
 
@@ -1163,19 +1432,23 @@ public class LauncherProvider extends ContentProvider {
         public final String table;
         public final String where;
         public final String[] args;
+        /** The row id when the uri addresses a single row, -1 otherwise */
+        public final long id;
 
         SqlArguments(Uri url, String where, String[] args) {
             if (url.getPathSegments().size() == 1) {
                 this.table = url.getPathSegments().get(0);
                 this.where = where;
                 this.args = args;
+                this.id = -1;
             } else if (url.getPathSegments().size() != 2) {
                 throw new IllegalArgumentException("Invalid URI: " + url);
             } else if (!TextUtils.isEmpty(where)) {
                 throw new UnsupportedOperationException("WHERE clause not supported: " + url);
             } else {
                 this.table = url.getPathSegments().get(0);
-                this.where = "_id=" + ContentUris.parseId(url);
+                this.id = ContentUris.parseId(url);
+                this.where = "_id=" + id;
                 this.args = null;
             }
         }
@@ -1185,6 +1458,7 @@ public class LauncherProvider extends ContentProvider {
                 table = url.getPathSegments().get(0);
                 where = null;
                 args = null;
+                id = -1;
             } else {
                 throw new IllegalArgumentException("Invalid URI: " + url);
             }
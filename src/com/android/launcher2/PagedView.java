@@ -44,6 +44,7 @@ import android.widget.Scroller;
 
 import com.android.launcher.R;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 /**
@@ -157,6 +158,19 @@ public abstract class PagedView extends ViewGroup implements
 
 	protected ArrayList<Boolean> mDirtyPageContent;
 
+	/**
+	 * 已加载的页，最近看过的在最后。加载窗口之外的页不会马上清空，
+	 * 最近看过的getRetainedPageCount()个会保留，超出的按最久未看的顺序清空
+	 */
+	private final ArrayList<Integer> mRecentPages = new ArrayList<Integer>();
+	private int mLastLowerPageBound = -1;
+	private int mLastUpperPageBound = -1;
+
+	// 页面同步的统计，见dumpPageSyncStats()
+	private int mPageSyncCount;
+	private int mPageReleaseCount;
+	private int mRetainedPageReuseCount;
+
 	// 是否要刷新page
 	protected boolean mContentIsRefreshable = true;
 
@@ -1755,12 +1769,39 @@ public abstract class PagedView extends ViewGroup implements
 				if (DEBUG)
 					Log.d(TAG, "loadAssociatedPages: " + lowerPageBound + "/"
 							+ upperPageBound);
+				// The pages in the window count as viewed, the current one last
+				for (int i = lowerPageBound; i <= upperPageBound; ++i) {
+					if (i != page) {
+						touchRecentPage(i);
+					}
+				}
+				touchRecentPage(page);
+				// Keep the most recently viewed, fully loaded pages outside the
+				// window, up to getRetainedPageCount() of them
+				final int maxRetained = getRetainedPageCount();
+				int retained = 0;
+				for (int j = mRecentPages.size() - 1; j >= 0; --j) {
+					final int i = mRecentPages.get(j);
+					if (lowerPageBound <= i && i <= upperPageBound) {
+						continue;
+					}
+					if (i < count && !mDirtyPageContent.get(i)
+							&& retained < maxRetained) {
+						retained++;
+						continue;
+					}
+					mRecentPages.remove(j);
+				}
 				// First, clear any pages that should no longer be loaded
 				for (int i = 0; i < count; ++i) {
-					Page layout = (Page) getPageAt(i);
 					if ((i < lowerPageBound) || (i > upperPageBound)) {
+						if (mRecentPages.contains(i)) {
+							continue;
+						}
+						Page layout = (Page) getPageAt(i);
 						if (layout.getPageChildCount() > 0) {
 							layout.removeAllViewsOnPage();
+							mPageReleaseCount++;
 						}
 						mDirtyPageContent.set(i, true);
 					}
@@ -1774,13 +1815,56 @@ public abstract class PagedView extends ViewGroup implements
 						if (mDirtyPageContent.get(i)) {
 							syncPageItems(i, (i == page) && immediateAndOnly);
 							mDirtyPageContent.set(i, false);
+							mPageSyncCount++;
+						} else if (i < mLastLowerPageBound || i > mLastUpperPageBound) {
+							// Came back into the window still loaded
+							mRetainedPageReuseCount++;
 						}
 					}
 				}
+				mLastLowerPageBound = lowerPageBound;
+				mLastUpperPageBound = upperPageBound;
 			}
 		}
 	}
 
+	private void touchRecentPage(int page) {
+		mRecentPages.remove(Integer.valueOf(page));
+		mRecentPages.add(page);
+	}
+
+	/**
+	 * 清空加载窗口之外保留的页面，内存紧张时调用
+	 */
+	protected void releaseRetainedPages() {
+		if (mRecentPages.isEmpty()) {
+			return;
+		}
+		// Only the window is touched again, everything else gets released
+		mRecentPages.clear();
+		loadAssociatedPages(mCurrentPage);
+	}
+
+	/**
+	 * How many loaded pages outside the associated page window stay loaded,
+	 * so that paging back to them doesn't sync them again. None by default.
+	 */
+	protected int getRetainedPageCount() {
+		return 0;
+	}
+
+	/**
+	 * Prints how often pages were synced, released and reused while still
+	 * loaded.
+	 */
+	public void dumpPageSyncStats(String prefix, PrintWriter writer) {
+		writer.println(prefix + getClass().getSimpleName() + " page syncs="
+				+ mPageSyncCount + " releases=" + mPageReleaseCount
+				+ " retainedReuses=" + mRetainedPageReuseCount
+				+ " retained=" + mRecentPages.size() + "/"
+				+ getRetainedPageCount());
+	}
+
 	protected int getAssociatedLowerPageBound(int page) {
 		return Math.max(0, page - 1);
 	}
@@ -1845,6 +1929,9 @@ public abstract class PagedView extends ViewGroup implements
 			for (int i = 0; i < count; ++i) {
 				mDirtyPageContent.add(true);
 			}
+			mRecentPages.clear();
+			mLastLowerPageBound = -1;
+			mLastUpperPageBound = -1;
 
 			// Load any pages that are necessary for the current window of views
 			loadAssociatedPages(mCurrentPage, immediateAndOnly);
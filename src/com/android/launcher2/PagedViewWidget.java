@@ -87,10 +87,7 @@ public class PagedViewWidget extends LinearLayout {
         if (sDeletePreviewsWhenDetachedFromWindow) {
             final ImageView image = (ImageView) findViewById(R.id.widget_preview);
             if (image != null) {
-                FastBitmapDrawable preview = (FastBitmapDrawable) image.getDrawable();
-                if (preview != null && preview.getBitmap() != null) {
-                    preview.getBitmap().recycle();
-                }
+                // The bitmap is shared through the PreviewBitmapCache, only drop the reference
                 image.setImageDrawable(null);
             }
         }
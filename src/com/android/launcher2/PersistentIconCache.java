@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * 持久化的图标与标题缓存。以ComponentName为键，保存渲染好的图标像素和标题，
+ * 并记录生成时的包版本（lastUpdateTime、versionCode）和配置（语言、mcc/mnc、dpi），
+ * 这样进程重启后IconCache可以不经过PackageManager直接得到图标
+ */
+class PersistentIconCache {
+    private static final String TAG = "Launcher.PersistentIconCache";
+
+    private static final String DATABASE_NAME = "app_icons.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE_ICONS = "icons";
+
+    private static final String COMPONENT = "componentName";
+    private static final String PACKAGE = "packageName";
+    private static final String LAST_UPDATED = "lastUpdated";
+    private static final String VERSION = "version";
+    private static final String CONFIG = "config";
+    private static final String LABEL = "label";
+    private static final String ICON = "icon";
+
+    private static final String[] ENTRY_PROJECTION = new String[] {
+            LAST_UPDATED, VERSION, LABEL, ICON
+    };
+
+    /**
+     * 从磁盘读出的一条记录
+     */
+    static class Entry {
+        long lastUpdateTime;
+        int versionCode;
+        String title;
+        Bitmap icon;
+
+        boolean isUpToDate(long lastUpdateTime, int versionCode) {
+            return this.lastUpdateTime == lastUpdateTime
+                    && this.versionCode == versionCode;
+        }
+    }
+
+    private final Context mContext;
+    private final int mIconDpi;
+    private final DatabaseHelper mOpenHelper;
+
+    PersistentIconCache(Context context, int iconDpi) {
+        mContext = context;
+        mIconDpi = iconDpi;
+        mOpenHelper = new DatabaseHelper(context);
+    }
+
+    /**
+     * Opens the database, creating it if needed. Called on the background
+     * thread at startup so that the first lookup doesn't pay for it.
+     */
+    void open() {
+        try {
+            mOpenHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not open the icon database", e);
+        }
+    }
+
+    /**
+     * Returns the stored entry for the component if it was rendered under the
+     * current configuration, or null. The caller decides whether the package
+     * version still matches.
+     */
+    Entry get(ComponentName componentName) {
+        Cursor c = null;
+        try {
+            c = mOpenHelper.getReadableDatabase().query(TABLE_ICONS,
+                    ENTRY_PROJECTION, COMPONENT + "=? and " + CONFIG + "=?",
+                    new String[] {
+                            componentName.flattenToString(), getConfigKey()
+                    }, null, null, null);
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            byte[] data = c.getBlob(3);
+            Bitmap icon = data != null ? BitmapFactory.decodeByteArray(data, 0,
+                    data.length) : null;
+            if (icon == null) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.lastUpdateTime = c.getLong(0);
+            entry.versionCode = c.getInt(1);
+            entry.title = c.getString(2);
+            entry.icon = icon;
+            return entry;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not read icon for " + componentName, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Stores (or replaces) the rendered icon and label of the component.
+     */
+    void put(ComponentName componentName, long lastUpdateTime,
+            int versionCode, String title, Bitmap icon) {
+        byte[] data = ItemInfo.flattenBitmap(icon);
+        if (data == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COMPONENT, componentName.flattenToString());
+        values.put(PACKAGE, componentName.getPackageName());
+        values.put(LAST_UPDATED, lastUpdateTime);
+        values.put(VERSION, versionCode);
+        values.put(CONFIG, getConfigKey());
+        values.put(LABEL, title);
+        values.put(ICON, data);
+        try {
+            mOpenHelper.getWritableDatabase().replace(TABLE_ICONS, null, values);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not save icon for " + componentName, e);
+        }
+    }
+
+    void remove(ComponentName componentName) {
+        delete(COMPONENT + "=?", componentName.flattenToString());
+    }
+
+    void removePackage(String packageName) {
+        delete(PACKAGE + "=?", packageName);
+    }
+
+    private void delete(String where, String arg) {
+        try {
+            mOpenHelper.getWritableDatabase().delete(TABLE_ICONS, where,
+                    new String[] {
+                        arg
+                    });
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not delete icons where " + where + " " + arg, e);
+        }
+    }
+
+    /**
+     * Labels and icons depend on the locale, the mcc/mnc resource qualifiers
+     * and the density the icons were rendered for.
+     */
+    private String getConfigKey() {
+        Configuration config = mContext.getResources().getConfiguration();
+        return config.locale + "/" + config.mcc + "/" + config.mnc + "/"
+                + mIconDpi;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_ICONS + " (" +
+                    COMPONENT + " TEXT PRIMARY KEY," +
+                    PACKAGE + " TEXT NOT NULL," +
+                    LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0," +
+                    VERSION + " INTEGER NOT NULL DEFAULT 0," +
+                    CONFIG + " TEXT," +
+                    LABEL + " TEXT," +
+                    ICON + " BLOB" +
+                    ");");
+            db.execSQL("CREATE INDEX " + TABLE_ICONS + "_" + PACKAGE + " ON "
+                    + TABLE_ICONS + " (" + PACKAGE + ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // This is only a cache, so just start over.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_ICONS);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 内存中的小部件、快捷方式预览图缓存，按字节数计费的LRU。
+ * 翻页回来、切换标签和开始拖动时直接复用已经生成的预览图。
+ *
+ * 缓存里的Bitmap是共享的，使用者不能recycle它们；被淘汰时也只是去掉引用，
+ * 因为它可能还显示在某个页面上
+ */
+class PreviewBitmapCache {
+    private static final int INITIAL_CAPACITY = 32;
+    // The preview budget is this fraction of the per-app heap limit, see
+    // IconCache.MEMORY_CLASS_FRACTION
+    private static final int MEMORY_CLASS_FRACTION = 16;
+
+    private final LinkedHashMap<String, Bitmap> mLru =
+            new LinkedHashMap<String, Bitmap>(INITIAL_CAPACITY, 0.75f, true);
+    private final long mDefaultMaxBytes;
+    private long mMaxBytes;
+    private long mSizeBytes;
+    // Bumped by removePackage(), a preview rendered across it is not stored
+    private int mGeneration;
+
+    PreviewBitmapCache(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        mDefaultMaxBytes = (long) activityManager.getMemoryClass() * 1024 * 1024
+                / MEMORY_CLASS_FRACTION;
+        mMaxBytes = mDefaultMaxBytes;
+    }
+
+    /**
+     * Key of a preview for the given widget provider or shortcut activity
+     * spanning spanX x spanY cells, rendered to fit in maxWidth x maxHeight.
+     */
+    static String getKey(ComponentName component, int spanX, int spanY, int maxWidth,
+            int maxHeight) {
+        return component.flattenToString() + "#" + spanX + "x" + spanY + "#"
+                + maxWidth + "x" + maxHeight;
+    }
+
+    /**
+     * Key of the desaturated icon drawn behind a shortcut's preview, size x size
+     * pixels.
+     */
+    static String getGhostKey(ComponentName component, int size) {
+        return component.flattenToString() + "#ghost#" + size;
+    }
+
+    Bitmap get(String key) {
+        synchronized (mLru) {
+            return mLru.get(key);
+        }
+    }
+
+    /**
+     * Read before rendering a preview and passed to
+     * {@link #put(String, int, Bitmap)}.
+     */
+    int getGeneration() {
+        synchronized (mLru) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Stores the preview unless a package was updated or removed since
+     * generation was read, it may have been rendered from the old package
+     * then. Any package counts, updates are rare enough.
+     */
+    void put(String key, int generation, Bitmap preview) {
+        if (preview == null) {
+            return;
+        }
+        synchronized (mLru) {
+            if (generation != mGeneration) {
+                return;
+            }
+            Bitmap old = mLru.put(key, preview);
+            if (old != null) {
+                mSizeBytes -= old.getByteCount();
+            }
+            mSizeBytes += preview.getByteCount();
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
+
+    /**
+     * 包被更新或卸载时丢掉它的全部预览图
+     */
+    void removePackage(String packageName) {
+        final String prefix = packageName + "/";
+        synchronized (mLru) {
+            mGeneration++;
+            Iterator<Map.Entry<String, Bitmap>> iter = mLru.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<String, Bitmap> e = iter.next();
+                if (e.getKey().startsWith(prefix)) {
+                    mSizeBytes -= e.getValue().getByteCount();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Shrinks the budget according to how much memory the system wants back,
+     * see {@link IconCache#trimMemory(int)}.
+     */
+    void trimMemory(int level) {
+        final long budget;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            // Previews are cheap to rebuild from the persistent cache
+            budget = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            budget = mDefaultMaxBytes / 4;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            budget = mDefaultMaxBytes / 2;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            budget = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            budget = mDefaultMaxBytes / 4;
+        } else {
+            budget = mDefaultMaxBytes / 2;
+        }
+        synchronized (mLru) {
+            mMaxBytes = Math.min(mMaxBytes, budget);
+            trimToSizeLocked(mMaxBytes);
+        }
+    }
+
+    /**
+     * 恢复默认的内存预算
+     */
+    void resetMemoryBudget() {
+        synchronized (mLru) {
+            mMaxBytes = mDefaultMaxBytes;
+        }
+    }
+
+    private void trimToSizeLocked(long maxBytes) {
+        Iterator<Map.Entry<String, Bitmap>> iter = mLru.entrySet().iterator();
+        while (mSizeBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String, Bitmap> e = iter.next();
+            mSizeBytes -= e.getValue().getByteCount();
+            iter.remove();
+        }
+    }
+}
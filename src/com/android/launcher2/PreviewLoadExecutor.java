@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+
+/**
+ * 加载小部件预览图的后台线程池。等待中的任务不是先进先出，而是每次取离目标页最近的一个，
+ * 所以目标页改变时不需要重新排序；保留窗口之外的任务在开始之前就被丢弃
+ */
+class PreviewLoadExecutor {
+    private final Object mLock = new Object();
+    /**
+     * Pending tasks in submission order, which breaks ties between pages at
+     * the same distance
+     */
+    private final ArrayList<AppsCustomizeAsyncTask> mPending =
+            new ArrayList<AppsCustomizeAsyncTask>();
+    private int mTargetPage;
+
+    PreviewLoadExecutor(String name, int threadCount) {
+        for (int i = 0; i < threadCount; i++) {
+            Thread worker = new Thread(name + "-" + i) {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            };
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    void execute(AppsCustomizeAsyncTask task) {
+        synchronized (mLock) {
+            mPending.add(task);
+            mLock.notify();
+        }
+    }
+
+    /**
+     * The page the user is on or is snapping to; pending tasks closest to it
+     * run first.
+     */
+    void setTargetPage(int page) {
+        synchronized (mLock) {
+            mTargetPage = page;
+        }
+    }
+
+    /**
+     * Cancels the pending tasks for pages outside [lower, upper] before they
+     * start.
+     */
+    void retainPages(int lower, int upper) {
+        synchronized (mLock) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                AppsCustomizeAsyncTask task = mPending.get(i);
+                if (task.page < lower || task.page > upper) {
+                    mPending.remove(i);
+                    task.cancel(false);
+                }
+            }
+        }
+    }
+
+    void remove(AppsCustomizeAsyncTask task) {
+        synchronized (mLock) {
+            mPending.remove(task);
+        }
+    }
+
+    private AppsCustomizeAsyncTask take() throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                AppsCustomizeAsyncTask best = null;
+                int bestDistance = Integer.MAX_VALUE;
+                for (int i = mPending.size() - 1; i >= 0; i--) {
+                    AppsCustomizeAsyncTask task = mPending.get(i);
+                    if (task.isCancelled()) {
+                        mPending.remove(i);
+                        continue;
+                    }
+                    // <= so that the earliest submitted wins a tie
+                    int distance = Math.abs(task.page - mTargetPage);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = task;
+                    }
+                }
+                if (best != null) {
+                    mPending.remove(best);
+                    return best;
+                }
+                mLock.wait();
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            AppsCustomizeAsyncTask task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            // The task raises its own priority while it runs, see syncThreadPriority()
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,1175 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.graphics.Rect;
+
+import java.util.Stack;
+
+/**
+ * CellLayout拖动重排的求解器。只依赖占用表、网格几何和各个item的位置大小，
+ * 不接触任何View，所以既可以在UI线程上同步运行，也可以拿一份快照在后台线程运行。
+ * 后台运行时用{@link Budget}限定截止时间，并且可以被更新的拖动位置取消。
+ *
+ * 一个ReorderSolver实例同一时间只能被一个线程使用
+ */
+final class ReorderSolver {
+
+    /**
+     * 求解的输入：网格几何、item的位置和大小以及占用表。item的顺序就是CellLayout中子View的顺序
+     */
+    static final class Layout {
+        int countX, countY;
+        int cellWidth, cellHeight;
+        int widthGap, heightGap;
+        int paddingLeft, paddingTop;
+
+        int itemCount;
+        int[] x = new int[0];
+        int[] y = new int[0];
+        int[] spanX = new int[0];
+        int[] spanY = new int[0];
+        boolean[] canReorder = new boolean[0];
+        /**
+         * Index of the item being dragged, -1 if it is not on this layout
+         */
+        int dragItem = -1;
+
+        CellOccupancy occupied;
+
+        void setItemCount(int count) {
+            if (x.length < count) {
+                x = new int[count];
+                y = new int[count];
+                spanX = new int[count];
+                spanY = new int[count];
+                canReorder = new boolean[count];
+            }
+            itemCount = count;
+            dragItem = -1;
+        }
+
+        void setItem(int i, int cellX, int cellY, int cellSpanX, int cellSpanY,
+                boolean reorder) {
+            x[i] = cellX;
+            y[i] = cellY;
+            spanX[i] = cellSpanX;
+            spanY[i] = cellSpanY;
+            canReorder[i] = reorder;
+        }
+    }
+
+    /**
+     * 一个候选的摆放方案：每个item的新位置，以及被拖动item的位置和大小
+     */
+    static final class Solution {
+        int count;
+        int[] x = new int[0];
+        int[] y = new int[0];
+        int[] spanX = new int[0];
+        int[] spanY = new int[0];
+        private int[] savedX = new int[0];
+        private int[] savedY = new int[0];
+        /**
+         * Item indices in the order they are considered for an edge push
+         */
+        int[] sorted = new int[0];
+        boolean isSolution = false;
+        int dragViewX, dragViewY, dragViewSpanX, dragViewSpanY;
+
+        private void ensureCapacity(int n) {
+            if (x.length < n) {
+                x = new int[n];
+                y = new int[n];
+                spanX = new int[n];
+                spanY = new int[n];
+                savedX = new int[n];
+                savedY = new int[n];
+                sorted = new int[n];
+            }
+        }
+
+        void reset() {
+            count = 0;
+            isSolution = false;
+            dragViewX = dragViewY = dragViewSpanX = dragViewSpanY = 0;
+        }
+
+        void resetFrom(Layout layout) {
+            reset();
+            ensureCapacity(layout.itemCount);
+            count = layout.itemCount;
+            for (int i = 0; i < count; i++) {
+                x[i] = layout.x[i];
+                y[i] = layout.y[i];
+                spanX[i] = layout.spanX[i];
+                spanY[i] = layout.spanY[i];
+                sorted[i] = i;
+            }
+        }
+
+        void copyFrom(Solution other) {
+            ensureCapacity(other.count);
+            count = other.count;
+            System.arraycopy(other.x, 0, x, 0, count);
+            System.arraycopy(other.y, 0, y, 0, count);
+            System.arraycopy(other.spanX, 0, spanX, 0, count);
+            System.arraycopy(other.spanY, 0, spanY, 0, count);
+            System.arraycopy(other.sorted, 0, sorted, 0, count);
+            isSolution = other.isSolution;
+            dragViewX = other.dragViewX;
+            dragViewY = other.dragViewY;
+            dragViewSpanX = other.dragViewSpanX;
+            dragViewSpanY = other.dragViewSpanY;
+        }
+
+        void save() {
+            System.arraycopy(x, 0, savedX, 0, count);
+            System.arraycopy(y, 0, savedY, 0, count);
+        }
+
+        void restore() {
+            System.arraycopy(savedX, 0, x, 0, count);
+            System.arraycopy(savedY, 0, y, 0, count);
+        }
+
+        int area() {
+            return dragViewSpanX * dragViewSpanY;
+        }
+    }
+
+    /**
+     * 求解的时间预算。超时或者被取消后搜索会尽快停下来
+     */
+    static final class Budget {
+        static final Budget UNLIMITED = new Budget(0);
+
+        private final long mTimeoutMillis;
+        private long mDeadline;
+        private volatile boolean mCancelled;
+
+        /**
+         * @param timeoutMillis 0 or less for no deadline
+         */
+        Budget(long timeoutMillis) {
+            mTimeoutMillis = timeoutMillis;
+            restart();
+        }
+
+        /**
+         * 重新开始计时并清除取消状态，以便复用同一个Budget。不能在搜索进行时调用
+         */
+        void restart() {
+            mDeadline = mTimeoutMillis > 0 ? System.nanoTime() + mTimeoutMillis * 1000000L
+                    : Long.MAX_VALUE;
+            mCancelled = false;
+        }
+
+        void cancel() {
+            if (this != UNLIMITED) {
+                mCancelled = true;
+            }
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        boolean isExhausted() {
+            return mCancelled
+                    || (mDeadline != Long.MAX_VALUE && System.nanoTime() > mDeadline);
+        }
+    }
+
+    private Layout mLayout;
+    private Budget mBudget = Budget.UNLIMITED;
+    private boolean mTimedOut;
+
+    private final Solution mSwapSolution = new Solution();
+    private final Solution mNoShuffleSolution = new Solution();
+
+    // 搜索过程中使用的临时对象，预先分配好，避免拖动时频繁GC
+    private final CellOccupancy mTmpOccupied = new CellOccupancy(0, 0);
+    private final CellOccupancy mBlockOccupied = new CellOccupancy(0, 0);
+    private final Stack<Rect> mTempRectStack = new Stack<Rect>();
+    private int mTempRectCount;
+    private final Stack<Rect> mValidRegions = new Stack<Rect>();
+    private final Rect mBestRect = new Rect();
+    private final Rect mOccupiedRect = new Rect();
+    private final Rect mIntersectRect0 = new Rect();
+    private final Rect mIntersectRect1 = new Rect();
+    private final Rect mBlockBoundingRect = new Rect();
+    private final int[] mTmpXY = new int[2];
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+    private final int[] mSwapResult = new int[2];
+    private final int[] mNoShuffleResult = new int[2];
+    private final int[] mNoShuffleResultSpan = new int[2];
+    private int[] mIntersecting = new int[0];
+    private int mIntersectingCount;
+    private final Cluster mCluster = new Cluster();
+
+    void setLayout(Layout layout) {
+        mLayout = layout;
+    }
+
+    /**
+     * Whether the last {@link #solve} ran out of time before the shuffling
+     * search finished.
+     */
+    boolean timedOut() {
+        return mTimedOut;
+    }
+
+    /**
+     * Looks for the best placement of the dragged item, either by shuffling
+     * the other items around or by shrinking it into a vacant area, like
+     * CellLayout.createArea() always did. The no-shuffle answer is computed
+     * first so that there is something to return when the budget runs out.
+     *
+     * @return the chosen solution, owned by this solver, or null if there is
+     *         none or the budget was cancelled
+     */
+    Solution solve(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
+            int[] direction, Budget budget) {
+        mBudget = budget;
+        mTimedOut = false;
+        try {
+            // We attempt the approach which doesn't shuffle views at all
+            Solution noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
+                    minSpanY, spanX, spanY, mNoShuffleSolution);
+
+            Solution swapSolution = simpleSwap(pixelX, pixelY, minSpanX, minSpanY,
+                    spanX, spanY, direction, true, mSwapSolution);
+            if (budget.isCancelled()) {
+                return null;
+            }
+
+            if (swapSolution.isSolution && swapSolution.area() >= noShuffleSolution.area()) {
+                return swapSolution;
+            } else if (noShuffleSolution.isSolution) {
+                return noShuffleSolution;
+            }
+            return null;
+        } finally {
+            mBudget = Budget.UNLIMITED;
+        }
+    }
+
+    /**
+     * Only the shuffling search, used while resizing a widget.
+     */
+    Solution solveSwap(int pixelX, int pixelY, int spanX, int spanY, int[] direction,
+            Budget budget) {
+        mBudget = budget;
+        mTimedOut = false;
+        try {
+            return simpleSwap(pixelX, pixelY, spanX, spanY, spanX, spanY, direction, true,
+                    mSwapSolution);
+        } finally {
+            mBudget = Budget.UNLIMITED;
+        }
+    }
+
+    private boolean outOfTime() {
+        if (mBudget.isExhausted()) {
+            mTimedOut = true;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(((float) deltaY) / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    private void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY, int[] result) {
+        final Layout l = mLayout;
+        result[0] = l.paddingLeft + cellX * (l.cellWidth + l.widthGap) +
+                (spanX * l.cellWidth + (spanX - 1) * l.widthGap) / 2;
+        result[1] = l.paddingTop + cellY * (l.cellHeight + l.heightGap) +
+                (spanY * l.cellHeight + (spanY - 1) * l.heightGap) / 2;
+    }
+
+    private void ensureTempRects(int count) {
+        while (mTempRectCount < count) {
+            mTempRectStack.push(new Rect());
+            mTempRectCount++;
+        }
+    }
+
+    private void recycleTempRects(Stack<Rect> used) {
+        while (!used.isEmpty()) {
+            mTempRectStack.push(used.pop());
+        }
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location. Uses Euclidean distance to score multiple vacant areas.
+     * The occupancy is only read.
+     *
+     * @param pixelX The X location at which you want to search for a vacant area.
+     * @param pixelY The Y location at which you want to search for a vacant area.
+     * @param minSpanX The minimum horizontal span required
+     * @param minSpanY The minimum vertical span required
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param ignoreOccupied If true, the result can be an occupied cell
+     * @param result Array in which to place the result, or null (in which case a new array will
+     *        be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
+            boolean ignoreOccupied, int[] result, int[] resultSpan, CellOccupancy occupied) {
+        final Layout l = mLayout;
+        final int countX = l.countX;
+        final int countY = l.countY;
+        ensureTempRects(countX * countY);
+
+        // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
+        // to the center of the item, but we are searching based on the top-left cell, so
+        // we translate the point over to correspond to the top-left.
+        pixelX -= (l.cellWidth + l.widthGap) * (spanX - 1) / 2f;
+        pixelY -= (l.cellHeight + l.heightGap) * (spanY - 1) / 2f;
+
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        // 只比较大小，用距离的平方即可
+        double bestDistance = Double.MAX_VALUE;
+        final Rect bestRect = mBestRect;
+        bestRect.set(-1, -1, -1, -1);
+        final Stack<Rect> validRegions = mValidRegions;
+
+        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
+                spanX < minSpanX || spanY < minSpanY) {
+            return bestXY;
+        }
+
+        for (int y = 0; y < countY - (minSpanY - 1); y++) {
+            inner:
+            for (int x = 0; x < countX - (minSpanX - 1); x++) {
+                int ySize = -1;
+                int xSize = -1;
+                if (ignoreOccupied) {
+                    // First, let's see if this thing fits anywhere
+                    if (!occupied.isVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
+                    }
+                    xSize = minSpanX;
+                    ySize = minSpanY;
+
+                    // We know that the item will fit at _some_ acceptable size, now let's see
+                    // how big we can make it. We'll alternate between incrementing x and y spans
+                    // until we hit a limit.
+                    boolean incX = true;
+                    boolean hitMaxX = xSize >= spanX;
+                    boolean hitMaxY = ySize >= spanY;
+                    while (!(hitMaxX && hitMaxY)) {
+                        if (incX && !hitMaxX) {
+                            if (!occupied.isVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
+                            }
+                            if (!hitMaxX) {
+                                xSize++;
+                            }
+                        } else if (!hitMaxY) {
+                            if (!occupied.isVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
+                            }
+                            if (!hitMaxY) {
+                                ySize++;
+                            }
+                        }
+                        hitMaxX |= xSize >= spanX;
+                        hitMaxY |= ySize >= spanY;
+                        incX = !incX;
+                    }
+                    incX = true;
+                    hitMaxX = xSize >= spanX;
+                    hitMaxY = ySize >= spanY;
+                }
+                final int[] cellXY = mTmpXY;
+                regionToCenterPoint(x, y, 1, 1, cellXY);
+
+                // We verify that the current rect is not a sub-rect of any of our previous
+                // candidates. In this case, the current rect is disqualified in favour of the
+                // containing rect.
+                Rect currentRect = mTempRectStack.pop();
+                currentRect.set(x, y, x + xSize, y + ySize);
+                boolean contained = false;
+                for (int i = validRegions.size() - 1; i >= 0; i--) {
+                    if (validRegions.get(i).contains(currentRect)) {
+                        contained = true;
+                        break;
+                    }
+                }
+                validRegions.push(currentRect);
+                final double dx = cellXY[0] - pixelX;
+                final double dy = cellXY[1] - pixelY;
+                double distance = dx * dx + dy * dy;
+
+                if ((distance <= bestDistance && !contained) ||
+                        currentRect.contains(bestRect)) {
+                    bestDistance = distance;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                    if (resultSpan != null) {
+                        resultSpan[0] = xSize;
+                        resultSpan[1] = ySize;
+                    }
+                    bestRect.set(currentRect);
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Double.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        recycleTempRects(validRegions);
+        return bestXY;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the views should move from x, y
+     * @param occupied Which cells in the layout are occupied
+     * @param blockOccupied Which cells in the specified block (cellX, cellY, spanX, spanY)
+     *        are occupied. This is used when try to move a group of views.
+     * @param result Array in which to place the result
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            CellOccupancy occupied, CellOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result;
+        // 距离的平方
+        int bestDistance = Integer.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        final int countX = mLayout.countX;
+        final int countY = mLayout.countY;
+
+        for (int y = 0; y < countY - (spanY - 1); y++) {
+            inner:
+            for (int x = 0; x < countX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !occupied.isVacant(x, y, spanX, spanY)
+                        : !occupied.fits(x, y, blockOccupied)) {
+                    continue inner;
+                }
+
+                int distance = (x - cellX) * (x - cellX) + (y - cellY) * (y - cellY);
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                boolean exactDirectionOnly = false;
+                boolean directionMatches = direction[0] == curDirection[0] &&
+                        direction[0] == curDirection[0];
+                if ((directionMatches || !exactDirectionOnly) &&
+                        distance < bestDistance || (distance == bestDistance
+                        && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Integer.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    private boolean addItemToTempLocation(int item, Rect rectOccupiedByPotentialDrop,
+            int[] direction, Solution currentState) {
+        final Solution c = currentState;
+        boolean success = false;
+        mTmpOccupied.mark(c.x[item], c.y[item], c.spanX[item], c.spanY[item], false);
+        markRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(c.x[item], c.y[item], c.spanX[item], c.spanY[item], direction,
+                mTmpOccupied, null, mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            c.x[item] = mTempLocation[0];
+            c.y[item] = mTempLocation[1];
+            success = true;
+        }
+        mTmpOccupied.mark(c.x[item], c.y[item], c.spanX[item], c.spanY[item], true);
+        return success;
+    }
+
+    /**
+     * This helper class defines a cluster of items. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other items. The edges
+     * essentially define a fine-grained boundary around the cluster of items -- like a more
+     * precise version of a bounding box.
+     */
+    private final class Cluster {
+        final static int LEFT = 0;
+        final static int TOP = 1;
+        final static int RIGHT = 2;
+        final static int BOTTOM = 3;
+
+        int[] items = new int[0];
+        int count;
+        Solution config;
+        final Rect boundingRect = new Rect();
+
+        int[] leftEdge = new int[0];
+        int[] rightEdge = new int[0];
+        int[] topEdge = new int[0];
+        int[] bottomEdge = new int[0];
+        boolean leftEdgeDirty, rightEdgeDirty, topEdgeDirty, bottomEdgeDirty, boundingRectDirty;
+
+        void reset(int[] clusterItems, int clusterCount, Solution solution) {
+            final int capacity = solution.count;
+            if (items.length < capacity) {
+                items = new int[capacity];
+            }
+            System.arraycopy(clusterItems, 0, items, 0, clusterCount);
+            count = clusterCount;
+            config = solution;
+            if (leftEdge.length < mLayout.countY) {
+                leftEdge = new int[mLayout.countY];
+                rightEdge = new int[mLayout.countY];
+            }
+            if (topEdge.length < mLayout.countX) {
+                topEdge = new int[mLayout.countX];
+                bottomEdge = new int[mLayout.countX];
+            }
+            resetEdges();
+        }
+
+        boolean contains(int item) {
+            for (int i = 0; i < count; i++) {
+                if (items[i] == item) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < mLayout.countX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < mLayout.countY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            leftEdgeDirty = true;
+            rightEdgeDirty = true;
+            bottomEdgeDirty = true;
+            topEdgeDirty = true;
+            boundingRectDirty = true;
+        }
+
+        void computeEdge(int which, int[] edge) {
+            final Solution cs = config;
+            for (int k = 0; k < count; k++) {
+                final int i = items[k];
+                switch (which) {
+                    case LEFT:
+                        int left = cs.x[i];
+                        for (int j = cs.y[i]; j < cs.y[i] + cs.spanY[i]; j++) {
+                            if (left < edge[j] || edge[j] < 0) {
+                                edge[j] = left;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        int right = cs.x[i] + cs.spanX[i];
+                        for (int j = cs.y[i]; j < cs.y[i] + cs.spanY[i]; j++) {
+                            if (right > edge[j]) {
+                                edge[j] = right;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        int top = cs.y[i];
+                        for (int j = cs.x[i]; j < cs.x[i] + cs.spanX[i]; j++) {
+                            if (top < edge[j] || edge[j] < 0) {
+                                edge[j] = top;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        int bottom = cs.y[i] + cs.spanY[i];
+                        for (int j = cs.x[i]; j < cs.x[i] + cs.spanX[i]; j++) {
+                            if (bottom > edge[j]) {
+                                edge[j] = bottom;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isItemTouchingEdge(int item, int whichEdge) {
+            final Solution cs = config;
+            int[] edge = getEdge(whichEdge);
+
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = cs.y[item]; i < cs.y[item] + cs.spanY[item]; i++) {
+                        if (edge[i] == cs.x[item] + cs.spanX[item]) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = cs.y[item]; i < cs.y[item] + cs.spanY[item]; i++) {
+                        if (edge[i] == cs.x[item]) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = cs.x[item]; i < cs.x[item] + cs.spanX[item]; i++) {
+                        if (edge[i] == cs.y[item] + cs.spanY[item]) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = cs.x[item]; i < cs.x[item] + cs.spanX[item]; i++) {
+                        if (edge[i] == cs.y[item]) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (int k = 0; k < count; k++) {
+                final int i = items[k];
+                switch (whichEdge) {
+                    case LEFT:
+                        config.x[i] -= delta;
+                        break;
+                    case RIGHT:
+                        config.x[i] += delta;
+                        break;
+                    case TOP:
+                        config.y[i] -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        config.y[i] += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        void addItem(int item) {
+            items[count++] = item;
+            resetEdges();
+        }
+
+        Rect getBoundingRect() {
+            if (boundingRectDirty) {
+                for (int k = 0; k < count; k++) {
+                    final int i = items[k];
+                    if (k == 0) {
+                        boundingRect.set(config.x[i], config.y[i], config.x[i] + config.spanX[i],
+                                config.y[i] + config.spanY[i]);
+                    } else {
+                        boundingRect.union(config.x[i], config.y[i],
+                                config.x[i] + config.spanX[i], config.y[i] + config.spanY[i]);
+                    }
+                }
+                boundingRectDirty = false;
+            }
+            return boundingRect;
+        }
+
+        int[] getEdge(int which) {
+            switch (which) {
+                case LEFT:
+                    if (leftEdgeDirty) {
+                        computeEdge(LEFT, leftEdge);
+                        leftEdgeDirty = false;
+                    }
+                    return leftEdge;
+                case RIGHT:
+                    if (rightEdgeDirty) {
+                        computeEdge(RIGHT, rightEdge);
+                        rightEdgeDirty = false;
+                    }
+                    return rightEdge;
+                case TOP:
+                    if (topEdgeDirty) {
+                        computeEdge(TOP, topEdge);
+                        topEdgeDirty = false;
+                    }
+                    return topEdge;
+                case BOTTOM:
+                default:
+                    if (bottomEdgeDirty) {
+                        computeEdge(BOTTOM, bottomEdge);
+                        bottomEdgeDirty = false;
+                    }
+                    return bottomEdge;
+            }
+        }
+
+        private int compare(int l, int r, int whichEdge) {
+            final Solution c = config;
+            switch (whichEdge) {
+                case LEFT:
+                    return (c.x[r] + c.spanX[r]) - (c.x[l] + c.spanX[l]);
+                case RIGHT:
+                    return c.x[l] - c.x[r];
+                case TOP:
+                    return (c.y[r] + c.spanY[r]) - (c.y[l] + c.spanY[l]);
+                case BOTTOM:
+                default:
+                    return c.y[l] - c.y[r];
+            }
+        }
+
+        /**
+         * 按被推动的先后顺序排列config.sorted。元素很少，用稳定的插入排序
+         */
+        void sortConfigurationForEdgePush(int edge) {
+            final int[] sorted = config.sorted;
+            for (int i = 1; i < config.count; i++) {
+                final int item = sorted[i];
+                int j = i - 1;
+                while (j >= 0 && compare(sorted[j], item, edge) > 0) {
+                    sorted[j + 1] = sorted[j];
+                    j--;
+                }
+                sorted[j + 1] = item;
+            }
+        }
+    }
+
+    private boolean pushItemsToTempLocation(int[] items, int itemCount,
+            Rect rectOccupiedByPotentialDrop, int[] direction, Solution currentState) {
+        if (outOfTime()) {
+            return false;
+        }
+
+        final Cluster cluster = mCluster;
+        cluster.reset(items, itemCount, currentState);
+        Rect clusterRect = cluster.getBoundingRect();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = Cluster.LEFT;
+            pushDistance = clusterRect.right - rectOccupiedByPotentialDrop.left;
+        } else if (direction[0] > 0) {
+            whichEdge = Cluster.RIGHT;
+            pushDistance = rectOccupiedByPotentialDrop.right - clusterRect.left;
+        } else if (direction[1] < 0) {
+            whichEdge = Cluster.TOP;
+            pushDistance = clusterRect.bottom - rectOccupiedByPotentialDrop.top;
+        } else {
+            whichEdge = Cluster.BOTTOM;
+            pushDistance = rectOccupiedByPotentialDrop.bottom - clusterRect.top;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        final Solution c = currentState;
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int k = 0; k < itemCount; k++) {
+            final int i = items[k];
+            mTmpOccupied.mark(c.x[i], c.y[i], c.spanX[i], c.spanY[i], false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        currentState.save();
+
+        // The pushing algorithm is simplified by considering the items in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the items by their right edge, from right to left.
+        cluster.sortConfigurationForEdgePush(whichEdge);
+
+        final int dragItem = mLayout.dragItem;
+        while (pushDistance > 0 && !fail) {
+            for (int k = 0; k < c.count; k++) {
+                final int i = c.sorted[k];
+                // For each item that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that item. If so, we add that item to the
+                // cluster.
+                if (!cluster.contains(i) && i != dragItem) {
+                    if (cluster.isItemTouchingEdge(i, whichEdge)) {
+                        if (!mLayout.canReorder[i]) {
+                            // The push solution includes the all apps button, this is not viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addItem(i);
+
+                        // Adding item to cluster, mark it as not occupied.
+                        mTmpOccupied.mark(c.x[i], c.y[i], c.spanX[i], c.spanY[i], false);
+                    }
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+
+        boolean foundSolution = false;
+        clusterRect = cluster.getBoundingRect();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the cell layout.
+        if (!fail && clusterRect.left >= 0 && clusterRect.right <= mLayout.countX
+                && clusterRect.top >= 0 && clusterRect.bottom <= mLayout.countY) {
+            foundSolution = true;
+        } else {
+            currentState.restore();
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int k = 0; k < cluster.count; k++) {
+            final int i = cluster.items[k];
+            mTmpOccupied.mark(c.x[i], c.y[i], c.spanX[i], c.spanY[i], true);
+        }
+
+        return foundSolution;
+    }
+
+    private boolean addItemsToTempLocation(int[] items, int itemCount,
+            Rect rectOccupiedByPotentialDrop, int[] direction, Solution currentState) {
+        if (itemCount == 0) return true;
+
+        final Solution c = currentState;
+        boolean success = false;
+        final Rect boundingRect = mBlockBoundingRect;
+        // We construct a rect which represents the entire group of items passed in
+        for (int k = 0; k < itemCount; k++) {
+            final int i = items[k];
+            if (k == 0) {
+                boundingRect.set(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
+            } else {
+                boundingRect.union(c.x[i], c.y[i], c.x[i] + c.spanX[i], c.y[i] + c.spanY[i]);
+            }
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int k = 0; k < itemCount; k++) {
+            final int i = items[k];
+            mTmpOccupied.mark(c.x[i], c.y[i], c.spanX[i], c.spanY[i], false);
+        }
+
+        final CellOccupancy blockOccupied = mBlockOccupied;
+        blockOccupied.resize(boundingRect.width(), boundingRect.height());
+        int top = boundingRect.top;
+        int left = boundingRect.left;
+        // We mark more precisely which parts of the bounding rect are truly occupied, allowing
+        // for interlocking.
+        for (int k = 0; k < itemCount; k++) {
+            final int i = items[k];
+            blockOccupied.mark(c.x[i] - left, c.y[i] - top, c.spanX[i], c.spanY[i], true);
+        }
+
+        markRect(rectOccupiedByPotentialDrop, mTmpOccupied, true);
+
+        findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
+                boundingRect.height(), direction, mTmpOccupied, blockOccupied, mTempLocation);
+
+        // If we successfuly found a location by pushing the block of items, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - boundingRect.left;
+            int deltaY = mTempLocation[1] - boundingRect.top;
+            for (int k = 0; k < itemCount; k++) {
+                final int i = items[k];
+                c.x[i] += deltaX;
+                c.y[i] += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int k = 0; k < itemCount; k++) {
+            final int i = items[k];
+            mTmpOccupied.mark(c.x[i], c.y[i], c.spanX[i], c.spanY[i], true);
+        }
+        return success;
+    }
+
+    private static void markRect(Rect r, CellOccupancy occupied, boolean value) {
+        occupied.mark(r.left, r.top, r.width(), r.height(), value);
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(int[] items, int itemCount, Rect occupied,
+            int[] direction, Solution solution) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(items, itemCount, occupied, direction, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+        }
+        return false;
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, Solution solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+
+        if (mIntersecting.length < solution.count) {
+            mIntersecting = new int[solution.count];
+        }
+        mIntersectingCount = 0;
+        mOccupiedRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+        // Mark the desired location of the item currently being dragged.
+        final int dragItem = mLayout.dragItem;
+        if (dragItem >= 0) {
+            solution.x[dragItem] = cellX;
+            solution.y[dragItem] = cellY;
+        }
+        final Rect r0 = mIntersectRect0;
+        final Rect r1 = mIntersectRect1;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        for (int k = 0; k < solution.count; k++) {
+            final int i = solution.sorted[k];
+            if (i == dragItem) continue;
+            r1.set(solution.x[i], solution.y[i], solution.x[i] + solution.spanX[i],
+                    solution.y[i] + solution.spanY[i]);
+            if (Rect.intersects(r0, r1)) {
+                if (!mLayout.canReorder[i]) {
+                    return false;
+                }
+                mIntersecting[mIntersectingCount++] = i;
+            }
+        }
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersecting, mIntersectingCount, mOccupiedRect, direction,
+                solution)) {
+            return true;
+        }
+        if (outOfTime()) {
+            return false;
+        }
+
+        // Next we try moving the items as a block, but without requiring the push mechanic.
+        if (addItemsToTempLocation(mIntersecting, mIntersectingCount, mOccupiedRect, direction,
+                solution)) {
+            return true;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (int k = 0; k < mIntersectingCount; k++) {
+            if (!addItemToTempLocation(mIntersecting[k], mOccupiedRect, direction, solution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Solution simpleSwap(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
+            int spanY, int[] direction, boolean decX, Solution solution) {
+        // Copy the current state into the solution. This solution will be manipulated as necessary.
+        solution.resetFrom(mLayout);
+        if (outOfTime()) {
+            return solution;
+        }
+        // Copy the current occupied array into the temporary occupied array. This array will be
+        // manipulated as necessary to find a solution.
+        mTmpOccupied.resize(mLayout.countX, mLayout.countY);
+        mTmpOccupied.copyFrom(mLayout.occupied);
+
+        // We find the nearest cell into which we would place the dragged item, assuming there's
+        // nothing in its way.
+        int[] result = findNearestArea(pixelX, pixelY, spanX, spanY, spanX, spanY, false,
+                mSwapResult, null, mLayout.occupied);
+
+        boolean success = false;
+        // First we try the exact nearest position of the item being dragged,
+        // we will then want to try to move this around to other neighbouring positions
+        success = rearrangementExists(result[0], result[1], spanX, spanY, direction, solution);
+
+        if (!success) {
+            // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
+            // x, then 1 in y etc.
+            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY, direction,
+                        false, solution);
+            } else if (spanY > minSpanY) {
+                return simpleSwap(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1, direction,
+                        true, solution);
+            }
+            solution.isSolution = false;
+        } else {
+            solution.isSolution = true;
+            solution.dragViewX = result[0];
+            solution.dragViewY = result[1];
+            solution.dragViewSpanX = spanX;
+            solution.dragViewSpanY = spanY;
+        }
+        return solution;
+    }
+
+    private Solution findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, Solution solution) {
+        solution.reset();
+        int[] result = mNoShuffleResult;
+        int[] resultSpan = mNoShuffleResultSpan;
+        findNearestArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, true, result,
+                resultSpan, mLayout.occupied);
+        if (result[0] >= 0 && result[1] >= 0) {
+            solution.resetFrom(mLayout);
+            solution.dragViewX = result[0];
+            solution.dragViewY = result[1];
+            solution.dragViewSpanX = resultSpan[0];
+            solution.dragViewSpanY = resultSpan[1];
+            solution.isSolution = true;
+        } else {
+            solution.isSolution = false;
+        }
+        return solution;
+    }
+}
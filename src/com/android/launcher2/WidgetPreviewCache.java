@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * 持久化的小部件预览图缓存。以provider、格子数和目标大小为键保存渲染好的预览图，
+ * 并记录生成时的包版本（lastUpdateTime、versionCode）和配置，
+ * 这样翻页或者进程重启后不需要重新从provider的包里加载和缩放预览图
+ */
+class WidgetPreviewCache {
+    private static final String TAG = "Launcher.WidgetPreviewCache";
+
+    private static final String DATABASE_NAME = "widget_previews.db";
+    private static final int DATABASE_VERSION = 1;
+
+    static final String TABLE_PREVIEWS = "previews";
+
+    private static final String KEY = "key";
+    private static final String PACKAGE = "packageName";
+    private static final String LAST_UPDATED = "lastUpdated";
+    private static final String VERSION = "version";
+    private static final String CONFIG = "config";
+    private static final String PREVIEW = "preview";
+
+    private static final String[] PREVIEW_PROJECTION = new String[] {
+            LAST_UPDATED, VERSION, PREVIEW
+    };
+
+    private final Context mContext;
+    private final PackageManager mPackageManager;
+    private final DatabaseHelper mOpenHelper;
+
+    WidgetPreviewCache(Context context) {
+        mContext = context;
+        mPackageManager = context.getPackageManager();
+        mOpenHelper = new DatabaseHelper(context);
+    }
+
+    /**
+     * Returns the installed version of the provider's package, or null. Read
+     * it once before get() and pass the same one to put(), so the preview is
+     * tagged with the version it was rendered from.
+     */
+    PackageInfo getPackageInfo(ComponentName provider) {
+        try {
+            return mPackageManager.getPackageInfo(provider.getPackageName(), 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored preview if it was rendered for the given version of
+     * the provider's package, under the current configuration, or null.
+     * Stale entries are deleted.
+     */
+    Bitmap get(ComponentName provider, PackageInfo pi, int spanX, int spanY, int maxWidth,
+            int maxHeight) {
+        if (pi == null) {
+            return null;
+        }
+        final String key = getKey(provider, spanX, spanY, maxWidth, maxHeight);
+        long lastUpdateTime;
+        int versionCode;
+        byte[] data;
+        Cursor c = null;
+        try {
+            c = mOpenHelper.getReadableDatabase().query(TABLE_PREVIEWS,
+                    PREVIEW_PROJECTION, KEY + "=? and " + CONFIG + "=?",
+                    new String[] {
+                            key, getConfigKey()
+                    }, null, null, null);
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            lastUpdateTime = c.getLong(0);
+            versionCode = c.getInt(1);
+            data = c.getBlob(2);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not read preview for " + provider, e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (pi.lastUpdateTime != lastUpdateTime || pi.versionCode != versionCode) {
+            delete(KEY + "=?", key);
+            return null;
+        }
+        return data != null ? BitmapFactory.decodeByteArray(data, 0, data.length) : null;
+    }
+
+    /**
+     * Stores (or replaces) the preview rendered for the provider from the
+     * given version of its package.
+     */
+    void put(ComponentName provider, PackageInfo pi, int spanX, int spanY, int maxWidth,
+            int maxHeight, Bitmap preview) {
+        if (pi == null) {
+            return;
+        }
+        byte[] data = ItemInfo.flattenBitmap(preview);
+        if (data == null) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(KEY, getKey(provider, spanX, spanY, maxWidth, maxHeight));
+        values.put(PACKAGE, provider.getPackageName());
+        values.put(LAST_UPDATED, pi.lastUpdateTime);
+        values.put(VERSION, pi.versionCode);
+        values.put(CONFIG, getConfigKey());
+        values.put(PREVIEW, data);
+        try {
+            mOpenHelper.getWritableDatabase().replace(TABLE_PREVIEWS, null, values);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not save preview for " + provider, e);
+        }
+    }
+
+    /**
+     * 包被更新或卸载时删除它的全部预览图
+     */
+    void removePackage(String packageName) {
+        delete(PACKAGE + "=?", packageName);
+    }
+
+    private void delete(String where, String arg) {
+        try {
+            mOpenHelper.getWritableDatabase().delete(TABLE_PREVIEWS, where,
+                    new String[] {
+                        arg
+                    });
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Could not delete previews where " + where + " " + arg, e);
+        }
+    }
+
+    private static String getKey(ComponentName provider, int spanX, int spanY,
+            int maxWidth, int maxHeight) {
+        return provider.flattenToString() + "#" + spanX + "x" + spanY + "#"
+                + maxWidth + "x" + maxHeight;
+    }
+
+    /**
+     * Previews depend on the locale and mcc/mnc resource qualifiers of the
+     * provider's package and on the density they were rendered for.
+     */
+    private String getConfigKey() {
+        Configuration config = mContext.getResources().getConfiguration();
+        return config.locale + "/" + config.mcc + "/" + config.mnc + "/"
+                + mContext.getResources().getDisplayMetrics().densityDpi;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_PREVIEWS + " (" +
+                    KEY + " TEXT PRIMARY KEY," +
+                    PACKAGE + " TEXT NOT NULL," +
+                    LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0," +
+                    VERSION + " INTEGER NOT NULL DEFAULT 0," +
+                    CONFIG + " TEXT," +
+                    PREVIEW + " BLOB" +
+                    ");");
+            db.execSQL("CREATE INDEX " + TABLE_PREVIEWS + "_" + PACKAGE + " ON "
+                    + TABLE_PREVIEWS + " (" + PACKAGE + ");");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // This is only a cache, so just start over.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_PREVIEWS);
+            onCreate(db);
+        }
+    }
+}
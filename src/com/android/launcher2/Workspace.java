@@ -205,6 +205,13 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 	private static final int REORDER_TIMEOUT = 250;
 	private final Alarm mFolderCreationAlarm = new Alarm();
 	private final Alarm mReorderAlarm = new Alarm();
+	// 拖动时反复使用的监听器和临时对象，onDragOver()里不再分配内存
+	private final FolderCreationAlarmListener mFolderCreationAlarmListener = new FolderCreationAlarmListener();
+	private final ReorderAlarmListener mReorderAlarmListener = new ReorderAlarmListener();
+	private final ReorderRequest[] mReorderRequests = { new ReorderRequest(),
+			new ReorderRequest() };
+	private int mNextReorderRequest;
+	private final Rect mDragOverHitRect = new Rect();
 	private FolderRingAnimator mDragFolderRingAnimator = null;
 	private FolderIcon mDragOverFolderIcon = null;
 	private boolean mCreateUserFolderOnDrop = false;
@@ -419,6 +426,11 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		mIsDragOccuring = false;
 		updateChildrenLayersEnabled(false);
 		mLauncher.unlockScreenOrientation(false);
+		// 请求会被复用，不要留着这次拖动的DragView
+		for (ReorderRequest request : mReorderRequests) {
+			request.dragView = null;
+			request.child = null;
+		}
 
 		// Re-enable any Un/InstallShortcutReceiver and now process any queued
 		// items
@@ -802,6 +814,13 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 	protected void onPageBeginMoving() {
 		super.onPageBeginMoving();
 
+		// 在页面滑入之前绑定途经的页面
+		if (mNextPage != INVALID_PAGE) {
+			mLauncher.bindWorkspacePages(mCurrentPage, mNextPage);
+		} else {
+			mLauncher.bindWorkspacePages(mCurrentPage - 1, mCurrentPage + 1);
+		}
+
 		if (isHardwareAccelerated()) {
 			updateChildrenLayersEnabled(false);
 		} else {
@@ -882,6 +901,7 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 	protected void notifyPageSwitchListener() {
 		super.notifyPageSwitchListener();
 		Launcher.setScreen(mCurrentPage);
+		mLauncher.bindWorkspacePages(mCurrentPage, mCurrentPage);
 	};
 
 	// As a ratio of screen height, the total distance we want the parallax
@@ -1727,6 +1747,10 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		final boolean oldStateIsSpringLoaded = (oldState == State.SPRING_LOADED);
 		final boolean oldStateIsSmall = (oldState == State.SMALL);
 		mState = state;
+		if (state != State.NORMAL) {
+			// 缩小后两侧的页面也露出来了，其余页面拖到时再绑定
+			mLauncher.bindWorkspacePages(mCurrentPage, mCurrentPage);
+		}
 		final boolean stateIsNormal = (state == State.NORMAL);
 		final boolean stateIsSpringLoaded = (state == State.SPRING_LOADED);
 		final boolean stateIsSmall = (state == State.SMALL);
@@ -2721,6 +2745,11 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		}
 		mDragTargetLayout = layout;
 		if (mDragTargetLayout != null) {
+			// 拖到还没绑定的页面时先绑定，放置和重排要用到完整的占用状态
+			final int page = indexOfChild(mDragTargetLayout);
+			if (page >= 0) {
+				mLauncher.bindWorkspacePage(page);
+			}
 			mDragTargetLayout.onDragEnter();
 		}
 		cleanupReorder(true);
@@ -2788,6 +2817,10 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		// Any pending reorders are canceled
 		if (cancelAlarm) {
 			mReorderAlarm.cancelAlarm();
+			// 已经在后台求解的重排也一起取消
+			if (mDragTargetLayout != null) {
+				mDragTargetLayout.cancelPendingReorder();
+			}
 		}
 		mLastReorderX = -1;
 		mLastReorderY = -1;
@@ -3014,7 +3047,7 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		if (mInScrollArea || mIsSwitchingState || mState == State.SMALL)
 			return;
 
-		Rect r = new Rect();
+		Rect r = mDragOverHitRect;
 		CellLayout layout = null;
 		ItemInfo item = (ItemInfo) d.dragInfo;
 
@@ -3125,9 +3158,9 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 				// Otherwise, if we aren't adding to or creating a folder and
 				// there's no pending
 				// reorder, then we schedule a reorder
-				ReorderAlarmListener listener = new ReorderAlarmListener(
-						mDragViewVisualCenter, minSpanX, minSpanY, item.spanX,
-						item.spanY, d.dragView, child);
+				ReorderAlarmListener listener = mReorderAlarmListener;
+				listener.set(mDragViewVisualCenter, minSpanX, minSpanY,
+						item.spanX, item.spanY, d.dragView, child);
 				mReorderAlarm.setOnAlarmListener(listener);
 				mReorderAlarm.setAlarm(REORDER_TIMEOUT);
 			}
@@ -3149,9 +3182,10 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 
 		if (mDragMode == DRAG_MODE_NONE && userFolderPending
 				&& !mFolderCreationAlarm.alarmPending()) {
+			mFolderCreationAlarmListener.set(targetLayout, targetCell[0],
+					targetCell[1]);
 			mFolderCreationAlarm
-					.setOnAlarmListener(new FolderCreationAlarmListener(
-							targetLayout, targetCell[0], targetCell[1]));
+					.setOnAlarmListener(mFolderCreationAlarmListener);
 			mFolderCreationAlarm.setAlarm(FOLDER_CREATION_TIMEOUT);
 			return;
 		}
@@ -3184,8 +3218,7 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		int cellX;
 		int cellY;
 
-		public FolderCreationAlarmListener(CellLayout layout, int cellX,
-				int cellY) {
+		void set(CellLayout layout, int cellX, int cellY) {
 			this.layout = layout;
 			this.cellX = cellX;
 			this.cellY = cellY;
@@ -3211,9 +3244,8 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		DragView dragView;
 		View child;
 
-		public ReorderAlarmListener(float[] dragViewCenter, int minSpanX,
-				int minSpanY, int spanX, int spanY, DragView dragView,
-				View child) {
+		void set(float[] dragViewCenter, int minSpanX, int minSpanY,
+				int spanX, int spanY, DragView dragView, View child) {
 			this.dragViewCenter = dragViewCenter;
 			this.minSpanX = minSpanX;
 			this.minSpanY = minSpanY;
@@ -3224,18 +3256,60 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		}
 
 		public void onAlarm(Alarm alarm) {
-			int[] resultSpan = new int[2];
 			mTargetCell = findNearestArea((int) mDragViewVisualCenter[0],
 					(int) mDragViewVisualCenter[1], spanX, spanY,
 					mDragTargetLayout, mTargetCell);
 			mLastReorderX = mTargetCell[0];
 			mLastReorderY = mTargetCell[1];
 
-			mTargetCell = mDragTargetLayout.createArea(
-					(int) mDragViewVisualCenter[0],
+			// 重排在后台求解，结果在ReorderRequest.onReorderResult()中处理。
+			// 监听器会被下一次onDragOver()重新设置，所以参数要跟着请求走。
+			// 两个请求轮流使用，新请求不会改掉还在等结果的那个
+			mNextReorderRequest = (mNextReorderRequest + 1)
+					% mReorderRequests.length;
+			final ReorderRequest request = mReorderRequests[mNextReorderRequest];
+			request.set(mLastReorderX, mLastReorderY, spanX, spanY, dragView,
+					child);
+			mDragTargetLayout.createAreaAsync((int) mDragViewVisualCenter[0],
 					(int) mDragViewVisualCenter[1], minSpanX, minSpanY, spanX,
-					spanY, child, mTargetCell, resultSpan,
-					CellLayout.MODE_DRAG_OVER);
+					spanY, child, request);
+		}
+	}
+
+	/**
+	 * 一次后台重排请求的参数，求解结束时用来检查结果是否仍然有效
+	 */
+	class ReorderRequest implements CellLayout.ReorderCallback {
+		int cellX, cellY;
+		int spanX, spanY;
+		DragView dragView;
+		View child;
+
+		void set(int cellX, int cellY, int spanX, int spanY,
+				DragView dragView, View child) {
+			this.cellX = cellX;
+			this.cellY = cellY;
+			this.spanX = spanX;
+			this.spanY = spanY;
+			this.dragView = dragView;
+			this.child = child;
+		}
+
+		public void onReorderResult(CellLayout layout, int[] result,
+				int[] resultSpan) {
+			if (layout != mDragTargetLayout) {
+				// The drag moved on to another page while solving
+				return;
+			}
+			if ((mDragMode != DRAG_MODE_NONE && mDragMode != DRAG_MODE_REORDER)
+					|| mLastReorderX != cellX || mLastReorderY != cellY) {
+				// The drag switched to a folder or moved on to another cell
+				// while solving, the preview is out of date
+				layout.revertTempState();
+				return;
+			}
+			mTargetCell[0] = result[0];
+			mTargetCell[1] = result[1];
 
 			if (mTargetCell[0] < 0 || mTargetCell[1] < 0) {
 				mDragTargetLayout.revertTempState();
@@ -3944,6 +4018,27 @@ public class Workspace extends SmoothPagedView implements DropTarget,
 		return null;
 	}
 
+	/**
+	 * 删除这些item在桌面和dock上对应的view
+	 */
+	void removeItemViews(ArrayList<ItemInfo> items) {
+		for (ItemInfo item : items) {
+			final View view = getViewForTag(item);
+			if (view == null) {
+				continue;
+			}
+			final CellLayout layout = getParentCellLayoutForView(view);
+			if (layout != null) {
+				// Goes through CellLayout so that the cells are marked as
+				// unoccupied again
+				layout.removeView(view);
+			}
+			if (view instanceof DropTarget) {
+				mDragController.removeDropTarget((DropTarget) view);
+			}
+		}
+	}
+
 	void clearDropTargets() {
 		ArrayList<ShortcutAndWidgetContainer> childrenLayouts = getAllShortcutAndWidgetContainers();
 		for (ShortcutAndWidgetContainer layout : childrenLayouts) {
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.content.ComponentName;
+import android.content.pm.ResolveInfo;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * {@link AllAppsList}在不同程序数量下加载和按包删除的开销。
+ * 用的是不做任何事的IconCache，不会动到launcher自己的图标缓存和磁盘缓存。
+ *
+ * adb shell am instrument -w -e class com.android.launcher2.AllAppsListBenchmark
+ * com.android.launcher.tests/android.test.InstrumentationTestRunner
+ */
+public class AllAppsListBenchmark extends AndroidTestCase {
+    private static final String TAG = "AllAppsListBenchmark";
+
+    /**
+     * Synthetic app counts, two activities per package
+     */
+    private static final int[] APP_COUNTS = {
+            50, 500, 5000
+    };
+    private static final int ACTIVITIES_PER_PACKAGE = 2;
+    private static final int LOAD_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 1000;
+    private static final long SEED = 0x1a0c4e5L;
+
+    private final long[] mLatencies = new long[MEASURED_ITERATIONS];
+    private IconCache mIconCache;
+
+    /**
+     * AllAppsList只在删除包和更新时用到IconCache，这里全部忽略
+     */
+    private static class StubIconCache extends IconCache {
+        StubIconCache(LauncherApplication context) {
+            super(context);
+        }
+
+        @Override
+        public void remove(ComponentName componentName) {
+        }
+
+        @Override
+        public void removePackage(String packageName) {
+        }
+
+        @Override
+        public void evictPackage(String packageName) {
+        }
+
+        @Override
+        public void getTitleAndIcon(ApplicationInfo application, ResolveInfo info,
+                HashMap<Object, CharSequence> labelCache) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIconCache = new StubIconCache((LauncherApplication) getContext()
+                .getApplicationContext());
+    }
+
+    public void testAllAppsList() {
+        Log.i(TAG, "op apps ops/s p50us p90us p99us maxus allocs/op bytes/op");
+        for (int appCount : APP_COUNTS) {
+            measure(appCount);
+        }
+    }
+
+    /**
+     * Measures a full load of appCount synthetic apps into an empty list, and
+     * removing one package from the loaded list.
+     */
+    private void measure(int appCount) {
+        final ApplicationInfo[] apps = new ApplicationInfo[appCount];
+        for (int i = 0; i < appCount; i++) {
+            final ApplicationInfo info = new ApplicationInfo();
+            info.componentName = new ComponentName(
+                    "com.example.app" + (i / ACTIVITIES_PER_PACKAGE),
+                    "com.example.Activity" + i);
+            info.title = info.componentName.getClassName();
+            apps[i] = info;
+        }
+
+        // Load: every add() looks the component up first
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOAD_ITERATIONS; i++) {
+            final long t = System.nanoTime();
+            final AllAppsList list = new AllAppsList(mIconCache);
+            for (ApplicationInfo info : apps) {
+                list.add(info);
+            }
+            mLatencies[i] = System.nanoTime() - t;
+        }
+        long elapsed = System.nanoTime() - start;
+        int allocs = Debug.getThreadAllocCount();
+        int allocBytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        printRow("allAppsLoad " + appCount, LOAD_ITERATIONS, elapsed, allocs, allocBytes);
+
+        // Remove a random package, its apps are added back untimed
+        final AllAppsList list = new AllAppsList(mIconCache);
+        for (ApplicationInfo info : apps) {
+            list.add(info);
+        }
+        final int packageCount = (appCount + ACTIVITIES_PER_PACKAGE - 1)
+                / ACTIVITIES_PER_PACKAGE;
+        final Random random = new Random(SEED);
+        elapsed = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            final int pkg = random.nextInt(packageCount);
+            final String packageName = apps[pkg * ACTIVITIES_PER_PACKAGE].componentName
+                    .getPackageName();
+            final long t = System.nanoTime();
+            list.removePackage(packageName, true);
+            mLatencies[i] = System.nanoTime() - t;
+            elapsed += mLatencies[i];
+            list.removed.clear();
+            for (int j = pkg * ACTIVITIES_PER_PACKAGE; j < Math.min(appCount,
+                    (pkg + 1) * ACTIVITIES_PER_PACKAGE); j++) {
+                list.add(apps[j]);
+            }
+        }
+        // Allocations are not counted, re-adding the package allocates
+        printRow("allAppsRemovePackage " + appCount, MEASURED_ITERATIONS, elapsed, 0, 0);
+    }
+
+    private void printRow(String name, int count, long elapsed, int allocs, int allocBytes) {
+        Arrays.sort(mLatencies, 0, count);
+        Log.i(TAG, name + " "
+                + (count * 1000000000L / Math.max(1, elapsed)) + " "
+                + percentileMicros(count, 50) + " " + percentileMicros(count, 90) + " "
+                + percentileMicros(count, 99) + " " + percentileMicros(count, 100) + " "
+                + ((float) allocs / count) + " "
+                + ((float) allocBytes / count));
+    }
+
+    private long percentileMicros(int count, int percentile) {
+        final int index = Math.min(count - 1, count * percentile / 100);
+        return mLatencies[index] / 1000;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.UiThreadTest;
+
+import com.android.launcher.R;
+
+/**
+ * 拖动经过同一个格子时，{@link Workspace#onDragOver}整条路径都不能分配对象：
+ * findNearestArea、getDistanceFromCell、manageFolderFeedback、
+ * isNearestDropLocationOccupied（getViewsIntersectingRegion）和visualizeDropLocation。
+ * 进入新格子时会启动动画和alarm，不计入。
+ *
+ * adb shell am instrument -w -e class com.android.launcher2.DragOverAllocationTest
+ * com.android.launcher.tests/android.test.InstrumentationTestRunner
+ */
+public class DragOverAllocationTest extends ActivityInstrumentationTestCase2<Launcher> {
+    /**
+     * Move events delivered inside each cell after the one that entered it
+     */
+    private static final int MOVES_PER_CELL = 8;
+
+    private Workspace mWorkspace;
+    private CellLayout mLayout;
+    private final DropTarget.DragObject mDragObject = new DropTarget.DragObject();
+    private final int[] mCellCenter = new int[2];
+    private int mDragViewOffsetX;
+    private int mDragViewOffsetY;
+
+    public DragOverAllocationTest() {
+        super(Launcher.class);
+    }
+
+    @UiThreadTest
+    public void testDragOverDoesNotAllocate() {
+        final Launcher launcher = getActivity();
+        mWorkspace = launcher.getWorkspace();
+        mLayout = (CellLayout) mWorkspace.getChildAt(mWorkspace.getCurrentPage());
+        assertTrue("workspace has not been laid out", mLayout.getCellWidth() > 0);
+        mDragViewOffsetX = launcher.getResources().getDimensionPixelSize(
+                R.dimen.dragViewOffsetX);
+        mDragViewOffsetY = launcher.getResources().getDimensionPixelSize(
+                R.dimen.dragViewOffsetY);
+
+        // A 1x1 shortcut dragged in from the widgets tab, with its outline
+        final PendingAddShortcutInfo info = new PendingAddShortcutInfo(null);
+        info.itemType = LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT;
+        final Bitmap b = Bitmap.createBitmap(mLayout.getCellWidth(), mLayout.getCellHeight(),
+                Bitmap.Config.ARGB_8888);
+        mWorkspace.onDragStartedWithItem(info, b, false);
+        final DragView dragView = new DragView(launcher, b, 0, 0, 0, 0, b.getWidth(),
+                b.getHeight(), 1f);
+        mDragObject.dragInfo = info;
+        mDragObject.dragView = dragView;
+        mDragObject.xOffset = b.getWidth() / 2;
+        mDragObject.yOffset = b.getHeight() / 2;
+
+        mWorkspace.onDragEnter(mDragObject);
+        final int jitterX = mLayout.getCellWidth() / 4;
+        final int jitterY = mLayout.getCellHeight() / 4;
+        int allocs = 0;
+        String worstCell = null;
+        int worstAllocs = 0;
+        Debug.startAllocCounting();
+        try {
+            for (int y = 0; y < mLayout.getCountY(); y++) {
+                for (int x = 0; x < mLayout.getCountX(); x++) {
+                    // Entering the cell animates the outline and may set alarms
+                    dragOver(x, y, 0, 0);
+
+                    Debug.resetThreadAllocCount();
+                    for (int i = 0; i < MOVES_PER_CELL; i++) {
+                        dragOver(x, y, (i & 1) == 0 ? jitterX : -jitterX,
+                                (i & 2) == 0 ? jitterY : -jitterY);
+                    }
+                    final int cellAllocs = Debug.getThreadAllocCount();
+                    allocs += cellAllocs;
+                    if (cellAllocs > worstAllocs) {
+                        worstAllocs = cellAllocs;
+                        worstCell = x + "," + y;
+                    }
+                }
+            }
+        } finally {
+            Debug.stopAllocCounting();
+            // Cancels the reorder and folder alarms set above
+            mWorkspace.onDragExit(mDragObject);
+        }
+
+        assertEquals("onDragOver allocated " + allocs + " objects, " + worstAllocs
+                + " of them over cell " + worstCell, 0, allocs);
+    }
+
+    /**
+     * Delivers a move event whose drag view is centered on the given cell of
+     * the current page, offset by dx, dy pixels.
+     */
+    private void dragOver(int cellX, int cellY, int dx, int dy) {
+        mLayout.cellToCenterPoint(cellX, cellY, mCellCenter);
+        // The inverse of getDragViewVisualCenter() and mapPointFromSelfToChild()
+        mDragObject.x = mCellCenter[0] + dx + mLayout.getLeft() - mWorkspace.getScrollX()
+                - mDragViewOffsetX;
+        mDragObject.y = mCellCenter[1] + dy + mLayout.getTop() - mWorkspace.getScrollY()
+                - mDragViewOffsetY;
+        mWorkspace.onDragOver(mDragObject);
+    }
+}
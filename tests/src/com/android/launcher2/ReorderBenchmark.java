@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher2;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 摆放和重排算法的基准测试。不需要任何View，直接在生成的布局上运行{@link ReorderSolver}，
+ * 输出吞吐量、延迟分位数和每次调用的分配次数。
+ *
+ * 只在测试包里，通过
+ * adb shell am instrument -w -e class com.android.launcher2.ReorderBenchmark
+ * com.android.launcher.tests/android.test.InstrumentationTestRunner
+ * 运行，结果输出到logcat。
+ */
+public class ReorderBenchmark extends AndroidTestCase {
+    private static final String TAG = "ReorderBenchmark";
+
+    private static final int[] GRID_SIZES = {
+            4, 6, 8, 10, 12
+    };
+
+    private static final int DENSITY_EMPTY = 0;
+    private static final int DENSITY_HALF = 1;
+    private static final int DENSITY_FULL = 2;
+    private static final String[] DENSITY_NAMES = {
+            "empty", "half", "full"
+    };
+
+    /**
+     * Widget sizes the generated layouts are made of, 1x1 icons first
+     */
+    private static final int[][] ITEM_SPANS = {
+            {1, 1}, {2, 2}, {4, 2}
+    };
+
+    private static final int OP_NEAREST_AREA = 0;
+    private static final int OP_NEAREST_VACANT_AREA = 1;
+    private static final int OP_SWAP = 2;
+    private static final int OP_SOLVE = 3;
+    // CellOccupancy queries the solver is built on
+    private static final int OP_IS_VACANT = 4;
+    private static final int OP_FIND_VACANT_CELL = 5;
+    // The solver work of one onDragOver() move event
+    private static final int OP_DRAG_OVER = 6;
+    private static final int OP_LAST = OP_DRAG_OVER;
+    private static final String[] OP_NAMES = {
+            "findNearestArea", "findNearestVacantArea", "simpleSwap", "createArea",
+            "isVacant", "findVacantCell", "dragOver"
+    };
+
+    private static final int CELL_SIZE = 100;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+    private static final long SEED = 0x1a0c4e5L;
+
+    private final ReorderSolver mSolver = new ReorderSolver();
+    private final int[] mResult = new int[2];
+    private final int[] mResultSpan = new int[2];
+    private final int[] mDirection = new int[2];
+    private final long[] mLatencies = new long[MEASURED_ITERATIONS];
+
+    /**
+     * Runs every operation over every grid size and density.
+     */
+    public void testReorderSolver() {
+        Log.i(TAG, "op grid density ops/s p50us p90us p99us maxus allocs/op bytes/op");
+        for (int size : GRID_SIZES) {
+            for (int density = DENSITY_EMPTY; density <= DENSITY_FULL; density++) {
+                final ReorderSolver.Layout layout = generateLayout(size, size, density,
+                        new Random(SEED + size * 31 + density));
+                for (int op = OP_NEAREST_AREA; op <= OP_LAST; op++) {
+                    measure(layout, op, DENSITY_NAMES[density]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the grid with randomly placed 1x1, 2x2 and 4x2 items until the
+     * requested share of cells is taken. A full grid ends with 1x1 items in
+     * whatever gaps the widgets left.
+     */
+    private static ReorderSolver.Layout generateLayout(int countX, int countY, int density,
+            Random random) {
+        final ReorderSolver.Layout layout = new ReorderSolver.Layout();
+        layout.countX = countX;
+        layout.countY = countY;
+        layout.cellWidth = CELL_SIZE;
+        layout.cellHeight = CELL_SIZE;
+        layout.occupied = new CellOccupancy(countX, countY);
+
+        final int cells = countX * countY;
+        final int target = density == DENSITY_EMPTY ? 0
+                : density == DENSITY_HALF ? cells / 2 : cells;
+        final int[] xs = new int[cells];
+        final int[] ys = new int[cells];
+        final int[] spanXs = new int[cells];
+        final int[] spanYs = new int[cells];
+        int count = 0;
+        int taken = 0;
+        int misses = 0;
+        while (taken < target && misses < cells * 4) {
+            final int[] span = ITEM_SPANS[random.nextInt(ITEM_SPANS.length)];
+            final int x = random.nextInt(countX);
+            final int y = random.nextInt(countY);
+            if (!layout.occupied.isVacant(x, y, span[0], span[1])) {
+                misses++;
+                continue;
+            }
+            layout.occupied.mark(x, y, span[0], span[1], true);
+            xs[count] = x;
+            ys[count] = y;
+            spanXs[count] = span[0];
+            spanYs[count] = span[1];
+            count++;
+            taken += span[0] * span[1];
+        }
+        if (density == DENSITY_FULL) {
+            final int[] vacant = new int[2];
+            while (layout.occupied.findVacantCell(vacant, 1, 1)) {
+                layout.occupied.mark(vacant[0], vacant[1], 1, 1, true);
+                xs[count] = vacant[0];
+                ys[count] = vacant[1];
+                spanXs[count] = 1;
+                spanYs[count] = 1;
+                count++;
+            }
+        }
+
+        layout.setItemCount(count);
+        for (int i = 0; i < count; i++) {
+            layout.setItem(i, xs[i], ys[i], spanXs[i], spanYs[i], true);
+        }
+        return layout;
+    }
+
+    private void measure(ReorderSolver.Layout layout, int op, String densityName) {
+        mSolver.setLayout(layout);
+        final Random random = new Random(SEED);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runOnce(layout, op, random);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            final long t = System.nanoTime();
+            runOnce(layout, op, random);
+            mLatencies[i] = System.nanoTime() - t;
+        }
+        final long elapsed = System.nanoTime() - start;
+        final int allocs = Debug.getThreadAllocCount();
+        final int allocBytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        mSolver.setLayout(null);
+
+        printRow(OP_NAMES[op] + " " + layout.countX + "x" + layout.countY + " "
+                + densityName, MEASURED_ITERATIONS, elapsed, allocs, allocBytes);
+    }
+
+    private void printRow(String name, int count, long elapsed, int allocs, int allocBytes) {
+        Arrays.sort(mLatencies, 0, count);
+        Log.i(TAG, name + " "
+                + (count * 1000000000L / Math.max(1, elapsed)) + " "
+                + percentileMicros(count, 50) + " " + percentileMicros(count, 90) + " "
+                + percentileMicros(count, 99) + " " + percentileMicros(count, 100) + " "
+                + ((float) allocs / count) + " "
+                + ((float) allocBytes / count));
+    }
+
+    private void runOnce(ReorderSolver.Layout layout, int op, Random random) {
+        // A drag of a 1x1 icon or a 2x2 widget to a random point of the grid
+        final int span = random.nextBoolean() ? 1 : 2;
+        final int pixelX = random.nextInt(layout.countX * CELL_SIZE);
+        final int pixelY = random.nextInt(layout.countY * CELL_SIZE);
+        ReorderSolver.computeDirectionVector(random.nextFloat() - 0.5f,
+                random.nextFloat() - 0.5f, mDirection);
+        switch (op) {
+            case OP_NEAREST_AREA:
+                mSolver.findNearestArea(pixelX, pixelY, span, span, span, span, false,
+                        mResult, null, layout.occupied);
+                break;
+            case OP_NEAREST_VACANT_AREA:
+                mSolver.findNearestArea(pixelX, pixelY, 1, 1, span, span, true, mResult,
+                        mResultSpan, layout.occupied);
+                break;
+            case OP_SWAP:
+                mSolver.solveSwap(pixelX, pixelY, span, span, mDirection,
+                        ReorderSolver.Budget.UNLIMITED);
+                break;
+            case OP_IS_VACANT:
+                // A random rectangle that fits in the grid
+                final int spanX = 1 + random.nextInt(layout.countX);
+                final int spanY = 1 + random.nextInt(layout.countY);
+                layout.occupied.isVacant(random.nextInt(layout.countX - spanX + 1),
+                        random.nextInt(layout.countY - spanY + 1), spanX, spanY);
+                break;
+            case OP_FIND_VACANT_CELL:
+                layout.occupied.findVacantCell(mResult, span, span);
+                break;
+            case OP_DRAG_OVER:
+                // findNearestArea() and isNearestDropLocationOccupied() both
+                // search with ignoreOccupied=false, like CellLayout does. The
+                // whole onDragOver() path is checked by DragOverAllocationTest
+                mSolver.findNearestArea(pixelX, pixelY, span, span, span, span, false,
+                        mResult, null, layout.occupied);
+                mSolver.findNearestArea(pixelX, pixelY, span, span, span, span, false,
+                        mResult, null, layout.occupied);
+                if (mResult[0] >= 0) {
+                    layout.occupied.countOccupied(mResult[0], mResult[1], span, span);
+                }
+                break;
+            case OP_SOLVE:
+            default:
+                mSolver.solve(pixelX, pixelY, 1, 1, span, span, mDirection,
+                        ReorderSolver.Budget.UNLIMITED);
+                break;
+        }
+    }
+
+    private long percentileMicros(int count, int percentile) {
+        final int index = Math.min(count - 1, count * percentile / 100);
+        return mLatencies[index] / 1000;
+    }
+}